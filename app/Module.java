@@ -0,0 +1,38 @@
+import java.util.function.BiFunction;
+
+import javax.inject.Singleton;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.typesafe.config.Config;
+
+import models.ScoreCallbackQueue;
+import models.SubmissionArchiver;
+import models.WorkspaceManager;
+import play.api.Configuration;
+import play.filters.gzip.GzipFilter;
+import play.filters.gzip.GzipFilterConfig;
+import play.mvc.Http;
+import play.mvc.Result;
+
+// Play picks up this module automatically. Eager singletons start their background work on startup.
+
+public class Module extends AbstractModule {
+	@Override
+	protected void configure() {
+		bind(ScoreCallbackQueue.class).asEagerSingleton();
+		bind(WorkspaceManager.class).asEagerSingleton();
+		bind(SubmissionArchiver.class).asEagerSingleton();
+		bind(GzipFilter.class); // Replaces play.filters.gzip.GzipFilterModule, see application.conf
+	}
+
+	// The configured content types, but no partial content, since Content-Range counts uncompressed bytes
+	@Provides @Singleton
+	GzipFilterConfig gzipFilterConfig(Config config) {
+		GzipFilterConfig configured = GzipFilterConfig.fromConfiguration(new Configuration(config));
+		BiFunction<Http.RequestHeader, Result, Boolean> shouldGzip = (request, result) ->
+			result.status() != Http.Status.PARTIAL_CONTENT
+				&& (Boolean) configured.shouldGzip().apply(request.asScala(), result.asScala());
+		return configured.withShouldGzip(shouldGzip);
+	}
+}
@@ -2,14 +2,27 @@ package controllers;
 
 import java.util.regex.*;
 
+import javax.inject.Inject;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Http.RequestBody;
 import play.mvc.Result;
+import models.ProblemCache;
+import models.ScoreCallbackQueue;
+import models.SubmissionArchiver;
 import models.Util;
+import models.WorkspaceManager;
 
 public class Application extends Controller {
    private Pattern dfPattern = Pattern.compile("(?s:.*?(?<percent>[0-9]+)%.*)");
+   @Inject private ScoreCallbackQueue scoreCallbackQueue;
+   @Inject private WorkspaceManager workspaceManager;
+   @Inject private SubmissionArchiver archiver;
+   @Inject private ProblemCache problemCache;
    
     public Result health(Http.Request request) {
        try {
@@ -30,6 +43,17 @@ public class Application extends Controller {
        }
     }   
     
+    // Only for the nodes and their monitoring, which know the warm key
+    public Result metrics(Http.Request request) {
+       if (!problemCache.isWarmKey(request.header(ProblemCache.WARM_KEY_HEADER).orElse(null)))
+          return forbidden();
+       ObjectNode result = JsonNodeFactory.instance.objectNode();
+       result.set("scoreCallbacks", scoreCallbackQueue.metrics());
+       result.set("workspaces", workspaceManager.metrics());
+       result.set("archive", archiver.metrics());
+       return ok(result);
+    }
+
     public Result echo(Http.Request request) {
     	RequestBody body = request.body();
     	return ok("Received: " + body.asJson());
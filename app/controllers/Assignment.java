@@ -80,6 +80,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import models.CodeCheck;
 import models.S3Connection;
 import models.Util;
 import play.Logger;
@@ -89,6 +90,7 @@ import play.mvc.Result;
 
 public class Assignment extends Controller {
 	@Inject private S3Connection s3conn;
+	@Inject private CodeCheck codeCheck;
 	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
 	
 	public static ArrayNode parseAssignment(String assignment) {
@@ -259,6 +261,7 @@ public class Assignment extends Controller {
     	assignmentNode.remove("editKey");
     	ArrayNode groups = (ArrayNode) assignmentNode.get("problems");
     	assignmentNode.set("problems", groups.get(Math.abs(workID.hashCode()) % groups.size()));
+    	if (isStudent) codeCheck.prefetch(assignmentNode.get("problems"), request.host(), ccid);
     	
     	String work = null;
     	if (!workID.equals("")) 
@@ -6,14 +6,20 @@ import java.time.Duration;
 import java.util.HashMap;
 import java.util.Iterator;
 import static java.util.Map.Entry;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
 
 import models.CodeCheck;
+import models.ScoreCallbackQueue;
+import models.SubmissionArchiver;
 import models.Util;
 import play.Logger;
 import play.libs.Json;
@@ -24,14 +30,21 @@ import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
 
 public class Check extends Controller {
 	// @Inject HttpExecutionContext ec;
 	private CodecheckExecutionContext ccec; 
 	@Inject CodeCheck codeCheck;
+	@Inject ScoreCallbackQueue scoreCallbackQueue;
+	@Inject SubmissionArchiver archiver;
+	@Inject Config config;
 	
 	// Classic HTML report
 	public CompletableFuture<Result> checkHTML(Http.Request request) throws IOException, InterruptedException {
@@ -65,10 +78,9 @@ public class Check extends Controller {
 		        if (report == null || report.length() == 0) {
 		        	report = String.format("Timed out after %5.0f seconds\n", elapsed);
 		        }
+		        archiver.archive(submissionDir);
 		        
 		        Http.Cookie newCookie = Http.Cookie.builder("ccu", ccu).withMaxAge(Duration.ofDays(180)).build();
-				// TODO: Delete submissionDir unless flag is set to keep it?
-				// Util.deleteDirectory(submissionDir);
 		        return ok(report).withCookies(newCookie).as("text/html");
 			}
 			catch (Exception ex) {
@@ -137,6 +149,7 @@ public class Check extends Controller {
 				codeCheck.run(reportType, repo, problem, ccu, submissionDir);
 				ObjectNode result = (ObjectNode) Json.parse(Util.read(submissionDir.resolve("report.json")));
 				String reportZip = Util.base64(submissionDir, "report.signed.zip");
+				archiver.archive(submissionDir);
 				
 				//TODO: Score callback no longer used from LTIHub. Does Engage use it?
 				if (scoreCallback != null) {
@@ -149,14 +162,11 @@ public class Check extends Controller {
 					
 					String resultText = Json.stringify(augmentedResult);
 					Logger.of("com.horstmann.codecheck.lti").info("Request: " + scoreCallback + " " + resultText);
-					String response = Util.httpPost(scoreCallback, resultText, "application/json");
-					Logger.of("com.horstmann.codecheck.lti").info("Response: " + response);
+					scoreCallbackQueue.enqueue(scoreCallback, resultText);
 				}
 				
 				result.put("zip", reportZip);
 				Http.Cookie newCookie = Http.Cookie.builder("ccu", ccu).withMaxAge(Duration.ofDays(180)).build();				
-				// TODO: Delete submissionDir unless flag is set to keep it?
-				// Util.deleteDirectory(submissionDir);
 				if (callback == null)
 					return ok(result).withCookies(newCookie);
 				else
@@ -166,4 +176,84 @@ public class Check extends Controller {
 			}
 		}, HttpExecution.fromThread((Executor) ccec) /* ec.current() */);			
 	}
+
+	/*
+	  Batch of submissions for one problem, e.g. when an instructor regrades a class. 
+	  Request: { repo, problem, editKey, submissions: [ { id, ccu, files: { name: contents, ... } }, ... ] }
+	  The edit key of the problem is required. The problem is loaded once. Submissions are 
+	  checked in parallel, and each result is streamed as a line { id, ...report... } or 
+	  { id, error } as soon as it is available. The loaded problem is deleted when the 
+	  stream is done and no check is running, also if the client goes away.
+	*/
+	public CompletableFuture<Result> checkBatch(Http.Request request) {
+		JsonNode json = request.body().asJson();
+		if (json == null || !json.has("problem") || !json.has("editKey") || !json.path("submissions").isArray())
+			return CompletableFuture.completedFuture(badRequest("Expected JSON with problem, editKey, and submissions"));
+		String repo = json.has("repo") ? json.get("repo").asText() : "ext";
+		String problem = json.get("problem").asText();
+		String editKey = json.get("editKey").asText();
+		List<JsonNode> submissions = new ArrayList<>();
+		json.get("submissions").forEach(submissions::add);
+		Executor executor = HttpExecution.fromThread((Executor) ccec);
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				if (!editKey.equals(codeCheck.getEditKey(repo, problem)))
+					return forbidden("Wrong edit key " + editKey + " for problem " + problem);
+			} catch (IOException ex) {
+				return badRequest("Problem not found: " + problem);
+			}
+			Logger.of("com.horstmann.codecheck.check").info("checkBatch: " + repo + "/" + problem + ", " + submissions.size() + " submissions");
+			Path problemDir;
+			try {
+				problemDir = codeCheck.loadProblem(repo, problem);
+			} catch (Exception ex) {
+				return badRequest("Problem not found: " + problem);
+			}
+			Set<CompletableFuture<ObjectNode>> running = ConcurrentHashMap.newKeySet();
+			Source<ByteString, ?> results = Source.from(submissions)
+				.mapAsyncUnordered(config.getInt("com.horstmann.codecheck.batch.parallelism"), submission -> {
+					CompletableFuture<ObjectNode> future = CompletableFuture.supplyAsync(() -> checkBatchSubmission(repo, problem, problemDir, submission), executor);
+					running.add(future);
+					future.whenComplete((r, ex) -> running.remove(future));
+					return future;
+				})
+				.map(result -> ByteString.fromString(Json.stringify(result) + "\n"))
+				.watchTermination((notUsed, done) -> done.whenComplete((d, ex) ->
+					CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).whenComplete((r, e) -> {
+						try {
+							Util.deleteDirectory(problemDir);
+						} catch (IOException e2) {
+							Logger.of("com.horstmann.codecheck.check").warn("Cannot delete " + problemDir, e2);
+						}
+					})));
+			return ok().chunked(results).as("application/x-ndjson");
+		}, executor);
+	}
+
+	private ObjectNode checkBatchSubmission(String repo, String problem, Path problemDir, JsonNode submission) {
+		ObjectNode result;
+		try {
+			Path submissionDir = codeCheck.createSubmissionDirectory();
+			Iterator<Entry<String, JsonNode>> iter = submission.path("files").fields();
+			while (iter.hasNext()) {
+				Entry<String, JsonNode> entry = iter.next();
+				Util.write(submissionDir, entry.getKey(), entry.getValue().asText());
+			}
+			String ccu = submission.has("ccu") ? submission.get("ccu").asText() : Util.createPronouncableUID();
+			codeCheck.run("njs", repo, problem, problemDir, ccu, submissionDir);
+			String report = Util.read(submissionDir.resolve("report.json"));
+			archiver.archive(submissionDir);
+			if (report == null) {
+				result = JsonNodeFactory.instance.objectNode();
+				result.put("error", "No report could be generated");
+			}
+			else
+				result = (ObjectNode) Json.parse(report);
+		} catch (Exception ex) {
+			result = JsonNodeFactory.instance.objectNode();
+			result.put("error", Util.getStackTrace(ex));
+		}
+		result.set("id", submission.get("id"));
+		return result;
+	}
 }
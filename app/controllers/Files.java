@@ -1,18 +1,28 @@
 package controllers;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.script.ScriptException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import models.BlobStore;
 import models.CodeCheck;
-import models.Problem;
+import models.Precompressed;
 import models.ProblemData;
 import models.Util;
 import play.libs.Json;
@@ -28,42 +38,119 @@ public class Files extends Controller {
       + "<script src='/assets/codecheck.js'></script>\n" 
       + "<link type='text/css' rel='stylesheet' href='/assets/codecheck.css'/>\n"
       + "</head><body>\n";
-   private static String before = "<form method=\"post\" action=\"{0}\">\n";
-
-   private static String fileAreaBefore = "<div id=\"{0}\" name=\"{0}\" rows=\"{1}\" cols=\"80\" class=\"editor {2}\">";
-   private static String fileAreaBeforeNoEdit = "<div id=\"{0}\" name=\"{0}\" rows=\"{1}\" cols=\"{2}\" class=\"editor readonly {3}\">";	
-   private static String fileAreaAfter = "</div>\n";
-	
-   private static String fileOuterDiv = "<div id=\"{0}\" class=\"file\">\n";
-   private static String fileOuterDivAfter = "</div>\n";
-	
-   private static String after = "<div><input id=\"submit\" type=\"submit\"/>\n" 
-      + "<input type=\"hidden\" name=\"repo\" value=\"{0}\"/>\n" 
-      + "<input type=\"hidden\" name=\"problem\" value=\"{1}\"/>\n";
+   private static String formStart = "<form method=\"post\" action=\"/check\">\n";
+   private static String fileEnd = "</div>\n";
    private static String formEnd = "</form>\n<div id=\"codecheck-submit-response\"></div>\n";
    private static String bodyEnd = "</body></html>";
 
-   private static String useStart = "<p>Use the following {0,choice,1#file|2#files}:</p>\n";
-   private static String provideStart = "<p>Complete the following {0,choice,1#file|2#files}:</p>\n";
+   // Responses for problems whose data is shared by all students, dropped with the data
+   private static Map<ProblemData, Precompressed> pages = Collections.synchronizedMap(new WeakHashMap<>());
+   private static Map<ProblemData, Precompressed> fileData = Collections.synchronizedMap(new WeakHashMap<>());
+   private static Map<ProblemData, Precompressed> slimFileData = Collections.synchronizedMap(new WeakHashMap<>());
+   private static Map<ProblemData, Map<String, Precompressed>> fileContents = Collections.synchronizedMap(new WeakHashMap<>());
+
+   private static Map<String, String> ASSET_TYPES = new HashMap<>();
+   static {
+      ASSET_TYPES.put("png", "image/png");
+      ASSET_TYPES.put("gif", "image/gif");
+      ASSET_TYPES.put("jpg", "image/jpeg");
+      ASSET_TYPES.put("jpeg", "image/jpeg");
+      ASSET_TYPES.put("svg", "image/svg+xml");
+      ASSET_TYPES.put("webp", "image/webp");
+   }
 
    @Inject private CodeCheck codeCheck;
+   @Inject private BlobStore blobStore;
+   @Inject private Config config;
 
-   public Result fileData(Http.Request request, String repo, String problemName, String ccid)
+   /**
+    * Yields the problem data as JSON. In slim mode, the files are described by their sizes
+    * and the sizes of their sections, and their contents are fetched with fileContents.
+    */
+   public Result fileData(Http.Request request, String repo, String problemName, String ccid, Boolean slim)
       throws IOException, NoSuchMethodException, ScriptException {        
       if (ccid == null) { 
          Optional<Http.Cookie> ccidCookie = request.getCookie("ccid");
          ccid = ccidCookie.map(Http.Cookie::value).orElse(Util.createPronouncableUID());
       }		
-      Path problemPath = null;
-      try {
-         problemPath = codeCheck.loadProblem(repo, problemName, ccid);
-         Problem problem = new Problem(problemPath);
-         Http.Cookie newCookie = Http.Cookie.builder("ccid", ccid).withMaxAge(Duration.ofDays(180)).build();
-         return ok(Json.toJson(problem.getData())).withCookies(newCookie);
-      } finally {
-         if (problemPath != null)
-            Util.deleteDirectory(problemPath);
+      String etag = etag(repo, problemName, ccid);
+      if (etag != null && notModified(request, etag))
+         return withCaching(request, status(NOT_MODIFIED), etag, ccid);
+      ProblemData data = codeCheck.getProblemData(repo, problemName, ccid);
+      if (data.version == null)
+         return withCaching(request, ok(slim ? slim(data) : Json.toJson(data)), etag, ccid);
+      Map<ProblemData, Precompressed> bodies = slim ? slimFileData : fileData;
+      Precompressed body = bodies.get(data);
+      if (body == null) {
+         body = new Precompressed(Json.stringify(slim ? slim(data) : Json.toJson(data)));
+         bodies.put(data, body);
       }
+      return withCaching(request, send(request, body, "application/json"), etag, ccid);
+   }
+
+   /**
+    * Yields the contents of one file of the problem data, as UTF-8 text. The contents of
+    * a required file are its sections, one after the other. A single byte range can be
+    * requested.
+    */
+   public Result fileContents(Http.Request request, String repo, String problemName, String file, String ccid)
+      throws IOException, NoSuchMethodException, ScriptException {        
+      if (ccid == null) { 
+         Optional<Http.Cookie> ccidCookie = request.getCookie("ccid");
+         ccid = ccidCookie.map(Http.Cookie::value).orElse(Util.createPronouncableUID());
+      }		
+      String etag = etag(repo, problemName, ccid);
+      if (etag != null && notModified(request, etag))
+         return withCaching(request, status(NOT_MODIFIED), etag, ccid);
+      ProblemData data = codeCheck.getProblemData(repo, problemName, ccid);
+      Map<String, Precompressed> contents = data.version == null ? new HashMap<>()
+         : fileContents.computeIfAbsent(data, d -> new ConcurrentHashMap<>());
+      Precompressed body = contents.get(file);
+      if (body == null) {
+         String text = contents(data, file);
+         if (text == null) return notFound();
+         body = new Precompressed(text);
+         contents.put(file, body);
+      }
+      return withCaching(request, sendRange(request, body, "text/plain; charset=utf-8", etag), etag, ccid);
+   }
+
+   /*
+    * The description, and the sizes of the files and their sections in UTF-8 bytes. The
+    * sections of a required file alternate between editable and not, starting with
+    * editable, and a missing section is null, as in ProblemData.requiredFiles.
+    */
+   private static JsonNode slim(ProblemData data) {
+      ObjectNode result = Json.newObject();
+      ObjectNode requiredFiles = result.putObject("requiredFiles");
+      for (Map.Entry<String, List<String>> entry : data.requiredFiles.entrySet()) {
+         ObjectNode file = requiredFiles.putObject(entry.getKey());
+         ArrayNode sections = file.putArray("sections");
+         long size = 0;
+         for (String cont : entry.getValue()) {
+            if (cont == null) sections.addNull();
+            else {
+               int n = cont.getBytes(StandardCharsets.UTF_8).length;
+               sections.add(n);
+               size += n;
+            }
+         }
+         file.put("size", size);
+      }
+      ObjectNode useFiles = result.putObject("useFiles");
+      for (Map.Entry<String, String> entry : data.useFiles.entrySet())
+         useFiles.putObject(entry.getKey()).put("size", entry.getValue().getBytes(StandardCharsets.UTF_8).length);
+      result.put("description", data.description);
+      return result;
+   }
+
+   private static String contents(ProblemData data, String file) {
+      List<String> sections = data.requiredFiles.get(file);
+      if (sections == null) return data.useFiles.get(file);
+      StringBuilder result = new StringBuilder();
+      for (String cont : sections)
+         if (cont != null) result.append(cont);
+      return result.toString();
    }
 
    public Result filesHTML(Http.Request request, String repo, String problemName, String ccid)
@@ -72,119 +159,253 @@ public class Files extends Controller {
           Optional<Http.Cookie> ccidCookie = request.getCookie("ccid");
           ccid = ccidCookie.map(Http.Cookie::value).orElse(Util.createPronouncableUID());
       }
-      Path problemPath = null;
-      try {						
-         problemPath = codeCheck.loadProblem(repo, problemName, ccid);
-         Problem problem = new Problem(problemPath);
-         ProblemData data = problem.getData();
-         StringBuilder result = new StringBuilder();
-         result.append(start);
-			
-         if (data.description != null)
-            result.append(data.description);
-         String contextPath = ""; // request.host(); // TODO
-         String url = contextPath + "/check";
-         result.append(MessageFormat.format(before, url));
-         result.append(MessageFormat.format(provideStart,
-               data.requiredFiles.size()));
-
-         for (Map.Entry<String, List<String>> entry : data.requiredFiles
-                 .entrySet()) {				
-            String file = entry.getKey();
-            List<String> conts = entry.getValue();
-
-            if (file.equals("Input") && conts.get(0).trim().length() == 0) {
-               // Make a hidden field with blank input
-               result.append("<input type='hidden' name='Input' value=''/>");
+      String etag = etag(repo, problemName, ccid);
+      if (etag != null && notModified(request, etag))
+         return withCaching(request, status(NOT_MODIFIED), etag, ccid);
+      ProblemData data = codeCheck.getProblemData(repo, problemName, ccid);
+      if (data.version == null)
+         return withCaching(request, ok(render(repo, problemName, data)).as("text/html"), etag, ccid);
+      Precompressed page = pages.get(data);
+      if (page == null) {
+         page = new Precompressed(render(repo, problemName, data));
+         pages.put(data, page);
+      }
+      return withCaching(request, send(request, page, "text/html; charset=utf-8"), etag, ccid);
+   }
+
+   /*
+    * Sends the gzip variant if the client accepts it
+    */
+   private static Result send(Http.Request request, Precompressed body, String contentType) {
+      if (Precompressed.acceptsGzip(request.header(ACCEPT_ENCODING).orElse(null)))
+         return ok(body.getGzipped()).as(contentType)
+            .withHeader(CONTENT_ENCODING, "gzip")
+            .withHeader(VARY, ACCEPT_ENCODING);
+      return ok(body.getPlain()).as(contentType).withHeader(VARY, ACCEPT_ENCODING);
+   }
+
+   /*
+    * Sends the requested byte range if there is a single one and the If-Range tag, if any,
+    * matches. Otherwise sends everything, like send.
+    */
+   private static Result sendRange(Http.Request request, Precompressed body, String contentType, String etag) {
+      Optional<String> range = request.header(RANGE);
+      Optional<String> ifRange = request.header(IF_RANGE);
+      int[] bounds = null;
+      if (range.isPresent() && (!ifRange.isPresent() || ifRange.get().equals(etag)
+            || ifRange.get().equals(gzipTag(etag))))
+         bounds = byteRange(range.get(), body.getPlain().length);
+      if (bounds == null)
+         return send(request, body, contentType).withHeader(ACCEPT_RANGES, "bytes");
+      byte[] plain = body.getPlain();
+      if (bounds.length == 0)
+         return status(REQUESTED_RANGE_NOT_SATISFIABLE).withHeader(CONTENT_RANGE, "bytes */" + plain.length);
+      return status(PARTIAL_CONTENT, Arrays.copyOfRange(plain, bounds[0], bounds[1] + 1)).as(contentType)
+         .withHeader(CONTENT_RANGE, "bytes " + bounds[0] + "-" + bounds[1] + "/" + plain.length)
+         .withHeader(ACCEPT_RANGES, "bytes"); // Not gzipped by the filter, see Module
+   }
+
+   /*
+    * Parses a Range header with a single byte range, such as bytes=0-99, bytes=100-, or bytes=-100.
+    * Yields the first and last byte, an empty array if no byte is in the range, or null if the
+    * header is not a single byte range.
+    */
+   private static int[] byteRange(String header, int length) {
+      header = header.trim();
+      if (!header.startsWith("bytes=") || header.contains(",")) return null;
+      String spec = header.substring("bytes=".length());
+      int dash = spec.indexOf('-');
+      if (dash == -1) return null;
+      String from = spec.substring(0, dash).trim();
+      String to = spec.substring(dash + 1).trim();
+      long first;
+      long last;
+      try {
+         if (from.isEmpty()) { // The last bytes
+            if (to.isEmpty()) return null;
+            long n = Long.parseLong(to);
+            if (n < 0) return null;
+            first = Math.max(0, length - n);
+            last = n == 0 ? -1 : length - 1;
+         } else {
+            first = Long.parseLong(from);
+            last = to.isEmpty() ? length - 1 : Long.parseLong(to);
+            if (first < 0 || last < first) return null;
+            last = Math.min(last, length - 1);
+         }
+      } catch (NumberFormatException ex) {
+         return null;
+      }
+      if (first >= length || last < first) return new int[0];
+      return new int[] { (int) first, (int) last };
+   }
+
+   /**
+    * Serves an image of a problem description. The name is the hash of the contents
+    * and the extension, so the response never changes.
+    */
+   public Result problemAsset(String repo, String name) {
+      int n = name.lastIndexOf('.');
+      String hash = n == -1 ? name : name.substring(0, n);
+      String contentType = ASSET_TYPES.get(Util.extension(name));
+      if (contentType == null) return notFound();
+      try {
+         byte[] contents = blobStore.readBlob(repo, hash);
+         return ok(contents).as(contentType)
+            .withHeader(ETAG, "\"" + hash + "\"")
+            .withHeader(CACHE_CONTROL, "public, max-age=31536000, immutable");
+      } catch (IOException | RuntimeException ex) {
+         return notFound();
+      }
+   }
+
+   /*
+    * A strong ETag from the problem version and, for problems with param.js, the student ID,
+    * or null if the problem has no version
+    */
+   private String etag(String repo, String problemName, String ccid) throws IOException {
+      String tag = codeCheck.getProblemTag(repo, problemName, ccid);
+      return tag == null ? null : "\"" + tag + "\"";
+   }
+
+   /*
+    * The tag of the gzip variant. A strong ETag names the exact bytes, so the gzip and
+    * identity bodies of the same version can't share one.
+    */
+   private static String gzipTag(String etag) {
+      return etag.substring(0, etag.length() - 1) + "-gz\"";
+   }
+
+   private static boolean notModified(Http.Request request, String etag) {
+      Optional<String> ifNoneMatch = request.header(IF_NONE_MATCH);
+      if (!ifNoneMatch.isPresent()) return false;
+      String gzipTag = gzipTag(etag);
+      for (String tag : ifNoneMatch.get().split(",")) {
+         tag = tag.trim();
+         if (tag.equals(etag) || tag.equals(gzipTag) || tag.equals("*")) return true;
+      }
+      return false;
+   }
+
+   /*
+    * A problem that is the same for all students can be cached by shared caches, but
+    * only if the response doesn't set the ccid cookie. Otherwise, caches must revalidate.
+    * A gzipped response, or a 304 to a client that would get one, carries the gzip tag.
+    */
+   private Result withCaching(Http.Request request, Result result, String etag, String ccid) {
+      if (etag == null)
+         return result.withCookies(ccidCookie(ccid));
+      boolean gzipped = result.status() == NOT_MODIFIED
+         ? Precompressed.acceptsGzip(request.header(ACCEPT_ENCODING).orElse(null))
+         : result.header(CONTENT_ENCODING).map(e -> e.equals("gzip")).orElse(false);
+      boolean shared = !etag.contains("-"); // No student part, see CodeCheck.getProblemTag
+      result = result.withHeader(ETAG, gzipped ? gzipTag(etag) : etag);
+      boolean hasCookie = request.getCookie("ccid").map(c -> c.value().equals(ccid)).orElse(false);
+      if (shared && hasCookie)
+         return result.withHeader(CACHE_CONTROL, "public, max-age="
+            + config.getDuration("com.horstmann.codecheck.problems.maxAge").getSeconds());
+      return result.withHeader(CACHE_CONTROL, "private, no-cache").withCookies(ccidCookie(ccid));
+   }
+
+   private static Http.Cookie ccidCookie(String ccid) {
+      return Http.Cookie.builder("ccid", ccid).withMaxAge(Duration.ofDays(180)).build();
+   }
+
+   /*
+    * Renders the page in one pass over each file, into a buffer that is sized up front.
+    */
+   private static String render(String repo, String problemName, ProblemData data) {
+      int size = start.length() + formEnd.length() + bodyEnd.length() + 1024;
+      if (data.description != null) size += data.description.length();
+      for (List<String> conts : data.requiredFiles.values())
+         for (String cont : conts)
+            if (cont != null) size += cont.length() + 256;
+      for (String cont : data.useFiles.values()) size += cont.length() + 256;
+      StringBuilder result = new StringBuilder(size + size / 16); // Room for escapes
+
+      result.append(start);
+      if (data.description != null)
+         result.append(data.description);
+      result.append(formStart);
+      result.append("<p>Complete the following ").append(data.requiredFiles.size() > 1 ? "files" : "file").append(":</p>\n");
+
+      for (Map.Entry<String, List<String>> entry : data.requiredFiles.entrySet()) {
+         String file = entry.getKey();
+         List<String> conts = entry.getValue();
+
+         if (file.equals("Input") && conts.get(0).trim().length() == 0) {
+            // Make a hidden field with blank input
+            result.append("<input type='hidden' name='Input' value=''/>");
+            continue;
+         }
+         boolean firstTitle = true;
+         int textAreaNumber = 0;
+         boolean editable = true;
+         for (String cont : conts) {
+            if (cont == null) { // only the case for the first time to skip editable
+               editable = false;
+               continue;
             }
-            else {            
-               boolean firstTitle = true;
-               int textAreaNumber = 0;
-               String appended;
-               //int continuingLines = 0;
-               boolean editable = true;
-               for (String cont : conts) { 
-                  if (cont == null) { // only the case for the first time to skip editable
-                     editable = false;
-                  } else {
-                     int lines = 0;
-                     textAreaNumber++;
-                     appended = file + "-" + textAreaNumber;
-                     lines = Util.countLines(cont);							
-                     if (lines == 0)
-                        lines = 20;
-						
-                     if (editable){
-                        if (firstTitle){
-                           result.append(MessageFormat.format(fileOuterDiv, file));
-                           result.append("<h3>");
-                           result.append(file);
-                           result.append("</h3>");
-                           firstTitle=false;
-                        }
-                        //result.append(MessageFormat.format(startNumberLines, "editor", "firstLineNumber", continuingLines));
-                        result.append(MessageFormat.format(fileAreaBefore, appended,
-                              lines, "java")); // TODO support more than "java" in ace editor format
-                        result.append(Util.removeTrailingNewline(Util.htmlEscape(cont)));
-                        result.append(fileAreaAfter);
-                        editable = false;	
-                     } else {
-                        if (firstTitle) {
-                           result.append(MessageFormat.format(fileOuterDiv, file));
-                           result.append("<h3>");
-                           result.append(file);
-                           result.append("</h3>");
-                           firstTitle=false;
-                        }
-							
-                        String s=cont;
-                        int max=20;
-                        while (s.indexOf("\n")!=-1) {
-                           if ((s.substring(0, s.indexOf("\n"))).length()>max){
-                              max = (s.substring(0, s.indexOf("\n"))).length();
-                           }
-                           s = s.substring(s.indexOf("\n") + 1);
-                        }
-                        if (s.length() > max) {
-                           max = s.length();
-                        }
-							 
-                        result.append(MessageFormat.format(fileAreaBeforeNoEdit, appended,
-                              lines, max, "java")); // TODO support more than "java" in ace editor format
-                        result.append(Util.removeTrailingNewline(Util.htmlEscape(cont)));
-                        result.append(fileAreaAfter);
-                        editable = true;
-                     }
-                  }
+            textAreaNumber++;
+            // Line count and width of the longest line, at least 20
+            int lines = 0;
+            int max = 20;
+            int lineStart = 0;
+            for (int i = 0; i < cont.length(); i++) {
+               if (cont.charAt(i) == '\n') {
+                  lines++;
+                  max = Math.max(max, i - lineStart);
+                  lineStart = i + 1;
                }
-               result.append(fileOuterDivAfter);
             }
-         }
-         result.append(MessageFormat.format(after, repo, problemName));
-         result.append(formEnd);
-			
-         int nusefiles = data.useFiles.size();
-         if (nusefiles > 0) {
-            result.append(MessageFormat.format(useStart, nusefiles));
-            for (Map.Entry<String, String> entry : data.useFiles
-                    .entrySet()) {
-               result.append("<p>");
-               result.append(entry.getKey());
-               result.append("</p>\n");
-               result.append("<pre>");
-               result.append(Util.htmlEscape(entry.getValue()));
-               result.append("</pre\n>");
+            max = Math.max(max, cont.length() - lineStart);
+            if (lines == 0)
+               lines = 20;
+
+            if (firstTitle) {
+               result.append("<div id=\"").append(file).append("\" class=\"file\">\n<h3>").append(file).append("</h3>");
+               firstTitle = false;
             }
+            String id = file + "-" + textAreaNumber;
+            result.append("<div id=\"").append(id).append("\" name=\"").append(id).append("\" rows=\"").append(lines);
+            // TODO support more than "java" in ace editor format
+            if (editable)
+               result.append("\" cols=\"80\" class=\"editor java\">");
+            else
+               result.append("\" cols=\"").append(max).append("\" class=\"editor readonly java\">");
+            appendEscaped(result, cont, true);
+            result.append(fileEnd);
+            editable = !editable;
          }
+         result.append(fileEnd);
+      }
+      result.append("<div><input id=\"submit\" type=\"submit\"/>\n")
+         .append("<input type=\"hidden\" name=\"repo\" value=\"").append(repo).append("\"/>\n")
+         .append("<input type=\"hidden\" name=\"problem\" value=\"").append(problemName).append("\"/>\n");
+      result.append(formEnd);
+
+      int nusefiles = data.useFiles.size();
+      if (nusefiles > 0) {
+         result.append("<p>Use the following ").append(nusefiles > 1 ? "files" : "file").append(":</p>\n");
+         for (Map.Entry<String, String> entry : data.useFiles.entrySet()) {
+            result.append("<p>").append(entry.getKey()).append("</p>\n<pre>");
+            appendEscaped(result, entry.getValue(), false);
+            result.append("</pre\n>");
+         }
+      }
+      result.append(bodyEnd);
+      return result.toString();
+   }
 
-         // result.append(jsonpAjaxSubmissionScript);
-         result.append(bodyEnd);
-			
-         Http.Cookie newCookie = Http.Cookie.builder("ccid", ccid).withMaxAge(Duration.ofDays(180)).build();
-         return ok(result.toString()).withCookies(newCookie).as("text/html");
-      } finally {
-         if (problemPath != null)
-            Util.deleteDirectory(problemPath);
+   private static void appendEscaped(StringBuilder result, String s, boolean removeTrailingNewline) {
+      int end = s.length();
+      if (removeTrailingNewline && end > 0 && s.charAt(end - 1) == '\n') end--;
+      for (int i = 0; i < end; i++) {
+         char c = s.charAt(i);
+         if (c == '<') result.append("&lt;");
+         else if (c == '>') result.append("&gt;");
+         else if (c == '&') result.append("&amp;");
+         else result.append(c);
       }
    }
 }
@@ -0,0 +1,65 @@
+package controllers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import javax.inject.Inject;
+
+import models.BackgroundJobs;
+import play.libs.concurrent.Futures;
+import play.libs.concurrent.HttpExecution;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+
+public class Jobs extends Controller {
+	private static final int MAX_WAIT = 60; // seconds
+	private static final int MAX_STORED_WAIT = 5; // seconds, for jobs on other nodes
+
+	@Inject
+	private BackgroundJobs jobs;
+	@Inject
+	private Futures futures;
+	@Inject
+	private CodecheckExecutionContext ccec;
+
+	/**
+	 * Reports the progress of a background job. The job ID is only known to
+	 * whoever started the job.
+	 * @param wait if positive, the number of seconds to wait for the job to
+	 * finish before reporting (long polling)
+	 */
+	public CompletionStage<Result> status(Http.Request request, String jobID, int wait) {
+		BackgroundJobs.Job job = jobs.get(jobID);
+		if (job == null) return storedStatus(jobID, wait);
+		if (wait <= 0 || job.isFinished())
+			return CompletableFuture.completedFuture(ok(job.status()));
+		return futures.timeout(job.whenFinished(), Duration.ofSeconds(Math.min(wait, MAX_WAIT)))
+			.handle((v, ex) -> ok(job.status())); // Report progress on timeout
+	}
+
+	/*
+	 * The status of a job that runs on another node. It is stored periodically, so
+	 * waiting is done by reading it again after a short delay.
+	 */
+	private CompletionStage<Result> storedStatus(String jobID, int wait) {
+		Executor executor = HttpExecution.fromThread((Executor) ccec);
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return jobs.loadStatus(jobID);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}, executor).thenCompose(status -> {
+			if (status == null)
+				return CompletableFuture.completedFuture(notFound("Job not found: " + jobID));
+			if (wait <= 0 || status.has("finishedAt"))
+				return CompletableFuture.completedFuture(ok(status));
+			return futures.delayed(() -> storedStatus(jobID, 0), Duration.ofSeconds(Math.min(wait, MAX_STORED_WAIT)));
+		});
+	}
+}
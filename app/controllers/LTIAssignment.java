@@ -18,6 +18,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import models.CodeCheck;
 import models.LTI;
 import models.S3Connection;
 import models.Util;
@@ -39,6 +40,7 @@ Session cookie (LTI only)
 
 public class LTIAssignment extends Controller {
 	@Inject private S3Connection s3conn;
+	@Inject private CodeCheck codeCheck;
 	@Inject private LTI lti;
 	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
 	
@@ -236,6 +238,9 @@ public class LTIAssignment extends Controller {
         	ArrayNode groups = (ArrayNode) assignmentNode.get("problems");
         	assignmentNode.set("problems", groups.get(Math.abs(userID.hashCode()) % groups.size()));
         	assignmentNode.remove("editKey");
+        	// The problems use the ccid cookie, if there is one
+        	codeCheck.prefetch(assignmentNode.get("problems"), request.host(),
+        		request.getCookie("ccid").map(Http.Cookie::value).orElse(null));
 
     		String lisOutcomeServiceURL = Util.getParam(postParams, "lis_outcome_service_url");
         	String lisResultSourcedID = Util.getParam(postParams, "lis_result_sourcedid");
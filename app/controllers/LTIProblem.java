@@ -1,17 +1,14 @@
 package controllers;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -20,8 +17,8 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import models.CodeCheck;
+import models.Interactivities;
 import models.LTI;
-import models.Problem;
 import models.ProblemData;
 import models.S3Connection;
 import models.Util;
@@ -31,12 +28,48 @@ import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+
 public class LTIProblem extends Controller {
 	@Inject private S3Connection s3conn;
 	@Inject private LTI lti;
 	@Inject private CodeCheck codeCheck;
+	@Inject private Interactivities interactivities;
 	
 	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+
+	// The launchCodeCheck page up to the LTI fragment, which is the same for all problems
+	private static final ByteString PAGE_START = ByteString.fromString(
+		"<?xml version='1.0' encoding='UTF-8'?>\n" + 
+		"<html xmlns='http://www.w3.org/1999/xhtml'>\n" + 
+		"  <head>\n" + 
+		"    <meta http-equiv='content-type' content='text/html; charset=UTF-8'/>\n" + 
+		"    <title>Interactivities</title> \n" + 
+		"    <script type='text/javascript' src='https://www.interactivities.ws/script/horstmann_all_min.js'></script> \n" + 
+		"    <link type='text/css' rel='stylesheet' href='https://www.interactivities.ws/css/horstmann_all_min.css'></link>\n" + 
+		"    <style type='text/css'>\n" + 
+		"      ol.interactivities > li {\n" + 
+		"        list-style: none;\n" + 
+		"        margin-bottom: 2em;\n" + 
+		"      }\n" + 
+		"      body {\n" + 
+		"        margin-left: 2em;\n" + 
+		"        margin-right: 2em;\n" + 
+		"        overflow-y: visible;\n" + 
+		"      }\n" + 
+		"    </style>\n" + 
+		"    <script type='text/javascript'>//<![CDATA[\n" +
+		"const lti = ");
+	private static final int PAGE_END_SIZE = 600; // Without the problem
+	private static final int MAX_PAGE_ENDS = 1000;
+	// The rest of launchCodeCheck pages, by problem version and, for problems with param.js, student
+	private static Map<String, ByteString> pageEnds = Collections.synchronizedMap(
+		new LinkedHashMap<String, ByteString>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, ByteString> eldest) {
+				return size() > MAX_PAGE_ENDS;
+			}
+		});
 	
 	private ObjectNode ltiNode(Http.Request request) {
 	 	Map<String, String[]> postParams = request.body().asFormUrlEncoded();
@@ -65,41 +98,6 @@ public class LTIProblem extends Controller {
 		return ltiNode;
 	}
 	
-	private String rewriteRelativeLinks(String urlString) throws IOException {
-		URL url = new URL(urlString);
-		InputStream in = url.openStream();
-		String contents = new String(Util.readAllBytes(in), StandardCharsets.UTF_8);
-		in.close();
-		int i1 = urlString.indexOf("/", 8); // after https://
-		String domain = urlString.substring(0, i1);
-		
-		Pattern pattern = Pattern.compile("\\s+(src|href)=[\"']([^\"']+)[\"']");
-		Matcher matcher = pattern.matcher(contents);
-		int previousEnd = 0;
-		String document = "";
-		while (matcher.find()) {
-			int start = matcher.start();
-			document += contents.substring(previousEnd, start);
-			String group1 = matcher.group(1);
-			String group2 = matcher.group(2);
-			document += " " + group1 + "='";
-			if (group2.startsWith("http:") || group2.startsWith("https:") || group2.startsWith("data:"))
-				document += group2;
-			else if (group2.startsWith("/"))
-				document += domain + "/" + group2;
-			else if (group2.equals("assets/receiveMessage.js")){ // TODO: Hack?
-				document += "/" + group2;
-			} else {
-				int i = urlString.lastIndexOf("/");
-				document += urlString.substring(0, i + 1) + group2;
-			}				
-			document += "'";
-			previousEnd = matcher.end();
-		}			
-		document += contents.substring(previousEnd);		
-		return document;
-	}
-
     public Result launch(Http.Request request) throws IOException {    
 		try {
 			ObjectNode ltiNode = ltiNode(request);
@@ -107,10 +105,7 @@ public class LTIProblem extends Controller {
 		    String qid = request.queryString("qid").orElse(null);
 		    // TODO: What about CodeCheck qids?
 	    	if (qid == null) return badRequest("No qid");
-			String domain = "https://www.interactivities.ws";
-			String urlString = domain + "/" + qid + ".xhtml";
-			String document = rewriteRelativeLinks(urlString);
-			document = document.replace("<head>", "<head><script>const lti = " + ltiNode.toString() + "</script>");
+			String document = interactivities.get(qid, "<script>const lti = " + ltiNode.toString() + "</script>");
 			return ok(document).as("text/html");
 		} catch (Exception ex) {
 			logger.info(Util.getStackTrace(ex));
@@ -125,59 +120,57 @@ public class LTIProblem extends Controller {
             Optional<Http.Cookie> ccidCookie = request.getCookie("ccid");
 		    String ccid = ccidCookie.map(Http.Cookie::value).orElse(Util.createPronouncableUID());
 			
-			Path problemPath = codeCheck.loadProblem(repo, problemName, ccid);
-	        Problem problem = new Problem(problemPath);
-	        ProblemData data = problem.getData();	        
-    		ObjectNode problemNode = (ObjectNode) Json.toJson(problem.getData());
-    		problemNode.put("url", "/checkNJS"); 
-    		problemNode.put("repo", repo);
-    		problemNode.put("problem", problemName);
-    		problemNode.remove("description"); // TODO: Or let node render it? 
-    		String qid = "codecheck-" + repo + "-" + problemName;
-    		String document = "<?xml version='1.0' encoding='UTF-8'?>\n" + 
-				"<html xmlns='http://www.w3.org/1999/xhtml'>\n" + 
-				"  <head>\n" + 
-				"    <meta http-equiv='content-type' content='text/html; charset=UTF-8'/>\n" + 
-				"    <title>Interactivities</title> \n" + 
-				"    <script type='text/javascript' src='https://www.interactivities.ws/script/horstmann_all_min.js'></script> \n" + 
-				"    <link type='text/css' rel='stylesheet' href='https://www.interactivities.ws/css/horstmann_all_min.css'></link>\n" + 
-				"    <style type='text/css'>\n" + 
-				"      ol.interactivities > li {\n" + 
-				"        list-style: none;\n" + 
-				"        margin-bottom: 2em;\n" + 
- 				"      }\n" + 
-				"      body {\n" + 
-				"        margin-left: 2em;\n" + 
-				"        margin-right: 2em;\n" + 
-				"        overflow-y: visible;\n" + 
-				"      }\n" + 
-				"    </style>\n" + 
-				"    <script type='text/javascript'>//<![CDATA[\n" +
-				"const lti = " + ltiNode.toString() + 
-				"\nhorstmann_codecheck.setup.push(\n" +
-				problemNode.toString() + 
-				")\n" +
+		    String tag = codeCheck.getProblemTag(repo, problemName, ccid);
+		    String key = tag == null ? null : repo + "/" + problemName + "/" + tag;
+		    ByteString pageEnd = key == null ? null : pageEnds.get(key);
+		    if (pageEnd == null) {
+		        ProblemData data = codeCheck.getProblemData(repo, problemName, ccid);
+		        pageEnd = ByteString.fromString(pageEnd(repo, problemName, data));
+		        if (key != null) pageEnds.put(key, pageEnd);
+		    }
+		    Source<ByteString, ?> document = Source.from(Arrays.asList(
+		        PAGE_START, ByteString.fromString(ltiNode.toString()), pageEnd));
+            Http.Cookie newCookie = Http.Cookie.builder("ccid", ccid).withMaxAge(Duration.ofDays(180)).build();    		
+    		return ok().chunked(document).withCookies(newCookie).as("text/html; charset=utf-8");
+    	}  catch (Exception ex) {
+			logger.info(Util.getStackTrace(ex));
+			return badRequest(ex.getMessage());
+		}
+    }
+
+    /*
+     * The part of a launchCodeCheck page after the LTI fragment
+     */
+    private static String pageEnd(String repo, String problemName, ProblemData data) {
+		ObjectNode problemNode = (ObjectNode) Json.toJson(data);
+		problemNode.put("url", "/checkNJS"); 
+		problemNode.put("repo", repo);
+		problemNode.put("problem", problemName);
+		problemNode.remove("description"); // TODO: Or let node render it? 
+		String qid = "codecheck-" + repo + "-" + problemName;
+		String problemJson = problemNode.toString();
+		StringBuilder result = new StringBuilder(PAGE_END_SIZE + problemJson.length() + 2 * qid.length()
+			+ (data.description == null ? 0 : data.description.length()));
+		result.append("\nhorstmann_codecheck.setup.push(\n")
+			.append(problemJson)
+			.append(")\n" +
 				"\n//]]></script>\n" + 
 				"    <script type='text/javascript' src='/assets/receiveMessage.js'></script> \n" + 
 				"  </head> \n" + 
 				"  <body>\n" + 
 				"    <ol class='interactivities' id='interactivities'>\n" +
-				"      <li title='" + qid + "' id='" + qid + "'>\n" + 
-				"        <div class='hc-included'>\n" +
-				(data.description == null ? "" : data.description) +
-				"        </div>\n" + 
+				"      <li title='")
+			.append(qid).append("' id='").append(qid).append("'>\n" + 
+				"        <div class='hc-included'>\n");
+		if (data.description != null) result.append(data.description);
+		result.append("        </div>\n" + 
 				"        <div class='horstmann_codecheck'>\n" +
 				"        </div>\n" + 
 				"      </li>\n" + 
 				"    </ol>" +
 				"  </body>" +
-				"</html>";
-            Http.Cookie newCookie = Http.Cookie.builder("ccid", ccid).withMaxAge(Duration.ofDays(180)).build();    		
-    		return ok(document).withCookies(newCookie).as("text/html");
-    	}  catch (Exception ex) {
-			logger.info(Util.getStackTrace(ex));
-			return badRequest(ex.getMessage());
-		}
+				"</html>");
+		return result.toString();
     }
 	
 	public Result send(Http.Request request) throws IOException, NoSuchAlgorithmException {
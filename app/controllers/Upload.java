@@ -1,43 +1,67 @@
 package controllers;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.inject.Inject;
-import javax.script.ScriptException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.Config;
 
+import models.BackgroundJobs;
+import models.BlobStore;
 import models.CodeCheck;
-import models.Problem;
+import models.ProblemCache;
+import models.RegradeJob;
 import models.S3Connection;
+import models.S3MultipartOutputStream;
+import models.ValidationJob;
+import models.ValidationReports;
 import models.Util;
 import play.libs.Files.TemporaryFile;
+import play.libs.concurrent.HttpExecution;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 
 public class Upload extends Controller {
 	final String repo = "ext";
+	private static final String STAGED = "staged/";
+	private static final Pattern FILE_PARAM = Pattern.compile("(?:filename|original)([0-9]+)");
 	@Inject
 	private S3Connection s3conn;
 	@Inject
 	private Config config;
 	@Inject
 	private CodeCheck codeCheck;
+	@Inject
+	private BackgroundJobs jobs;
+	@Inject
+	private BlobStore blobStore;
+	@Inject
+	private ValidationReports validationReports;
+	@Inject
+	private ProblemCache problemCache;
+	@Inject
+	private CodecheckExecutionContext ccec;
 
 	public Result uploadFiles(Http.Request request) {
 		return uploadFiles(request, Util.createPublicUID(), Util.createPrivateUID());
@@ -45,10 +69,12 @@ public class Upload extends Controller {
 
 	public Result editedFiles(Http.Request request, String problem, String editKey) {
 		try {
-			if (checkEditKey(problem, editKey))
-				return uploadFiles(request, problem, editKey);
-			else
+			if (!checkEditKey(problem, editKey))
 				return badRequest("Wrong edit key " + editKey + " in problem " + problem);
+			else if (request.body().asFormUrlEncoded().containsKey("delta"))
+				return uploadFileChanges(request, problem);
+			else
+				return uploadFiles(request, problem, editKey);
 		} catch (IOException ex) {
 			return badRequest("Problem not found: " + problem);
 		} catch (Exception ex) {
@@ -82,36 +108,89 @@ public class Upload extends Controller {
 			}
 
 			Util.write(problemDir, "edit.key", editKey);
-			if (isOnS3) {
-				Path problemZip = Files.createTempFile("problem", "zip");
-				Util.zip(problemDir, problemZip);
-				s3conn.putToS3(problemZip, repo, problem);
-				Files.delete(problemZip);
+			try {
+				return publish(request, problem, problemDir, editKey, Util.createPublicUID(), isAtomic(request), false);
+			} finally {
+				if (isOnS3) Util.deleteDirectory(problemDir);
 			}
-			String response = checkProblem(request, problem, problemDir);
-			if (isOnS3)
-				Util.deleteDirectory(problemDir);
-			return ok(response).as("text/html").addingToSession(request, "pid", problem);
 		} catch (Exception ex) {
 			return internalServerError(Util.getStackTrace(ex));
 		}
 	}
 
-	public Result uploadProblem(Http.Request request) {
-		return uploadProblem(request, Util.createPublicUID(), Util.createPrivateUID());
-	}
+	/*
+	 * The edit form sends only the files that were added, changed, or deleted. Each changed
+	 * file n has a parameter filenameN with the new name, or an empty name if it was
+	 * deleted, and contentsN. originalN is the name that an existing file had before.
+	 */
+	private Result uploadFileChanges(Http.Request request, String problem) throws Exception {
+		Map<String, String[]> params = request.body().asFormUrlEncoded();
+		Map<String, String> changed = new TreeMap<>();
+		Set<String> deleted = new TreeSet<>();
+		Set<Integer> indexes = new TreeSet<>();
+		for (String param : params.keySet()) {
+			Matcher matcher = FILE_PARAM.matcher(param);
+			if (matcher.matches()) indexes.add(Integer.parseInt(matcher.group(1)));
+		}
+		for (int n : indexes) {
+			String[] filename = params.get("filename" + n);
+			if (filename == null) continue; // Unchanged
+			String name = filename[0].trim();
+			String[] original = params.get("original" + n);
+			if (original != null && !original[0].equals(name)) deleted.add(original[0]);
+			if (name.length() > 0) {
+				String[] contents = params.get("contents" + n);
+				changed.put(name, contents == null ? "" : contents[0]);
+			}
+		}
+		deleted.removeAll(changed.keySet());
+		changed.remove("edit.key");
+		deleted.remove("edit.key");
+		Set<String> names = new TreeSet<>(changed.keySet());
+		names.addAll(deleted);
+		for (String name : names)
+			if (name.contains("/") || name.contains("\\") || name.equals("..")) return badRequest("Bad file name " + name);
 
-	private boolean checkEditKey(String problem, String editKey) throws IOException {
-		Path problemDir = null;
+		String editKey = codeCheck.getEditKey(repo, problem);
+		if (!s3conn.isOnS3(repo)) {
+			Path problemDir = java.nio.file.Paths.get(config.getString("com.horstmann.codecheck.repo." + repo)).resolve(problem);
+			applyFileChanges(problemDir, changed, deleted);
+			return publish(request, problem, problemDir, editKey, Util.createPublicUID(), false, false);
+		}
+		ObjectNode manifest = blobStore.readManifest(repo, problem);
+		Path problemDir = manifest == null ? codeCheck.loadProblem(repo, problem) : blobStore.loadProblem(repo, manifest);
 		try {
-			problemDir = codeCheck.loadProblem(repo, problem);
-			String correctEditKey = Util.read(problemDir, "edit.key");
-			return correctEditKey != null && editKey.equals(correctEditKey.trim());
+			applyFileChanges(problemDir, changed, deleted);
+			String version = Util.createPublicUID();
+			if (manifest == null) // Not yet stored as blobs
+				return publish(request, problem, problemDir, editKey, version, isAtomic(request), false);
+			// Patch the manifest instead of storing all files. The zip file is still rewritten
+			// from the patched files, since it holds the edit key and is what a legacy load reads.
+			ObjectNode previousManifest = manifest;
+			return publish(request, problem, problemDir, editKey, version, isAtomic(request), false,
+				() -> blobStore.patchFiles(repo, previousManifest, changed, deleted, version));
 		} finally {
 			Util.deleteDirectory(problemDir);
 		}
 	}
 
+	private static void applyFileChanges(Path problemDir, Map<String, String> changed, Set<String> deleted)
+			throws IOException {
+		for (String name : deleted)
+			Files.deleteIfExists(problemDir.resolve(name));
+		for (Map.Entry<String, String> entry : changed.entrySet())
+			Util.write(problemDir, entry.getKey(), entry.getValue());
+	}
+
+	public Result uploadProblem(Http.Request request) {
+		return uploadProblem(request, Util.createPublicUID(), Util.createPrivateUID());
+	}
+
+	private boolean checkEditKey(String problem, String editKey) throws IOException {
+		String correctEditKey = codeCheck.getEditKey(repo, problem);
+		return correctEditKey != null && editKey.equals(correctEditKey);
+	}
+
 	/**
 	 * Upload of zip file when editing problem with edit key
 	 */
@@ -142,7 +221,6 @@ public class Upload extends Controller {
 				if (!Files.exists(unzipDir))
 					Files.createDirectory(unzipDir);
 			}
-			Path problemZip = unzipDir.resolve(problem + ".zip");
 			try {
 				Path problemDir = unzipDir.resolve(problem);
 				Util.deleteDirectory(problemDir); // Delete any prior contents so that it is replaced by new zip file
@@ -150,43 +228,202 @@ public class Upload extends Controller {
 				Http.MultipartFormData.FilePart<TemporaryFile> tempZipPart = body.getFile("file");
 				TemporaryFile tempZipFile = tempZipPart.getRef();
 				Path savedPath = tempZipFile.path();
-				Files.copy(savedPath, problemZip);
-
-				fixZip(problemZip);
-				// TODO: Inefficient to unzip and zip just for the edit key
-				InputStream in = Files.newInputStream(problemZip);
-				Util.unzip(in, problemDir);
-				in.close();
-				if (!Files.exists(problemDir.resolve("edit.key")))
-					Util.write(problemDir, "edit.key", editKey);
-
-				if (isOnS3) {
-					Path problemEditKeyZip = Files.createTempFile("problem", "zip");
-					Util.zip(problemDir, problemEditKeyZip);
-					s3conn.putToS3(problemEditKeyZip, repo, problem);
-					Files.delete(problemEditKeyZip);
+
+				String version = Util.createPublicUID();
+				if (!isOnS3) {
+					Util.normalizeZip(savedPath, null, problemDir, editKey, config.getInt("com.horstmann.codecheck.zip.level"));
+					return publish(request, problem, problemDir, Util.read(problemDir, "edit.key").trim(), version, false, false);
+				}
+				// Stream the normalized zip file to S3 while extracting it
+				boolean atomic = isAtomic(request);
+				String zipKey = atomic ? stagedKey(problem, version) : problem;
+				String problemEditKey = Util.readEditKey(savedPath); // The zip file may have its own
+				if (problemEditKey == null) problemEditKey = editKey;
+				S3MultipartOutputStream out = s3conn.openS3OutputStream(repo, zipKey, editKeyMetadata(problemEditKey));
+				try {
+					Util.normalizeZip(savedPath, out, problemDir, editKey, config.getInt("com.horstmann.codecheck.zip.level"));
+					out.close();
+				} catch (IOException | RuntimeException ex) {
+					out.cancel();
+					throw ex;
 				}
-				String response = checkProblem(request, problem, problemDir);
-				return ok(response).as("text/html").addingToSession(request, "pid", problem);
+				return publish(request, problem, problemDir, problemEditKey, version, atomic, true);
 			} finally {
 				if (isOnS3)
 					Util.deleteDirectory(unzipDir);
-				else
-					Files.delete(problemZip);
 			}
 		} catch (Exception ex) {
 			return internalServerError(Util.getStackTrace(ex));
 		}
 	}
 
-	private String checkProblem(Http.Request request, String problem, Path problemDir)
-			throws IOException, InterruptedException, NoSuchMethodException, ScriptException {
+	/*
+	 * Stores a problem while its solution is checked. On S3, the problem zip is streamed
+	 * to S3, unless zipStored, while the blobs and manifest are stored. In local repo mode,
+	 * the problem directory is already in place. With atomic, the new version is staged
+	 * and published after the check (see publishAfterCheck).
+	 */
+	private Result publish(Http.Request request, String problem, Path problemDir, String editKey, String version,
+			boolean atomic, boolean zipStored) throws Exception {
+		return publish(request, problem, problemDir, editKey, version, atomic, zipStored,
+			() -> blobStore.storeFiles(repo, problemDir, version));
+	}
+
+	/*
+	 * @param storeFiles stores the blobs of the new version and yields its manifest
+	 */
+	private Result publish(Http.Request request, String problem, Path problemDir, String editKey, String version,
+			boolean atomic, boolean zipStored, IOSupplier<ObjectNode> storeFiles) throws Exception {
+		if (!s3conn.isOnS3(repo)) {
+			ValidationJob validation = startValidation(problem, version, problemDir, null);
+			return validationResult(request, problem, problemDir, validation.getId(), null);
+		}
+		String zipKey = atomic ? stagedKey(problem, version) : problem;
+		CompletableFuture<Void> zip = zipStored ? CompletableFuture.completedFuture(null)
+			: runAsync(() -> storeZip(zipKey, problemDir, editKey));
+		if (atomic) {
+			CompletableFuture<ObjectNode> manifest = supplyAsync(storeFiles);
+			return publishAfterCheck(request, problem, problemDir, version, zip.thenCombine(manifest, (v, m) -> m), zipKey);
+		}
+		CompletableFuture<Void> blobs = runAsync(() -> {
+			ObjectNode manifest = storeFiles.get();
+			problemCache.warmAll(repo, problem, manifest);
+			blobStore.writeManifest(repo, problem, manifest);
+		});
+		CompletableFuture<Void> storage = CompletableFuture.allOf(zip, blobs);
+		ValidationJob validation = startValidation(problem, version, problemDir, publishedBy(storage));
+		join(storage);
+		return validationResult(request, problem, problemDir, validation.getId(), null);
+	}
+
+	/*
+	 * Atomic publishing (?atomic): The new version is staged--its blobs are stored,
+	 * and its zip file is stored as staged/<problem>/<version>.
+	 * The validation job publishes it when a report of the solution could be generated,
+	 * by moving the zip file into place, warming up the nodes, and writing the manifest.
+	 * Until then, students see the previous version, and the request doesn't wait for
+	 * the check.
+	 * @param staged yields the manifest of the new version when it is staged
+	 * @param stagedZipKey the key of the staged zip file
+	 */
+	private Result publishAfterCheck(Http.Request request, String problem, Path problemDir, String version,
+			CompletableFuture<ObjectNode> staged, String stagedZipKey) throws Exception {
+		ValidationJob validation = startValidation(problem, version, problemDir, new ValidationJob.Publication() {
+			public void publish() throws Exception {
+				ObjectNode manifest = staged.get();
+				s3conn.copyInS3(repo, stagedZipKey, problem);
+				s3conn.deleteFromS3(repo, stagedZipKey);
+				problemCache.warmAll(repo, problem, manifest);
+				blobStore.writeManifest(repo, problem, manifest);
+			}
+
+			public void discard() throws Exception {
+				s3conn.deleteFromS3(repo, stagedZipKey);
+			}
+		});
+		join(staged);
+		return validationResult(request, problem, problemDir, validation.getId(),
+			"The problem will be published when its solution has been checked. Until then, any previous version is kept.");
+	}
+
+	/*
+	 * A version that the upload request publishes while the solution is checked. The
+	 * validation job waits for it, so that the report is only kept for a published version.
+	 */
+	private static ValidationJob.Publication publishedBy(CompletableFuture<?> storage) {
+		return new ValidationJob.Publication() {
+			public void publish() throws Exception {
+				storage.get();
+			}
+
+			public void discard() {
+			}
+		};
+	}
+
+	private static String stagedKey(String problem, String version) {
+		return STAGED + problem + "/" + version;
+	}
+
+	private void storeZip(String key, Path problemDir, String editKey) throws IOException {
+		S3MultipartOutputStream out = s3conn.openS3OutputStream(repo, key, editKeyMetadata(editKey));
+		try {
+			Util.zip(problemDir, out, config.getInt("com.horstmann.codecheck.zip.level"));
+			out.close();
+		} catch (IOException | RuntimeException ex) {
+			out.cancel();
+			throw ex;
+		}
+	}
+
+	private static Map<String, String> editKeyMetadata(String editKey) {
+		return Collections.singletonMap(CodeCheck.EDIT_KEY_METADATA, editKey);
+	}
+
+	private boolean isAtomic(Http.Request request) {
+		return request.queryString("atomic").isPresent();
+	}
+
+	private interface IORunnable {
+		void run() throws IOException;
+	}
+
+	private interface IOSupplier<T> {
+		T get() throws IOException;
+	}
+
+	private CompletableFuture<Void> runAsync(IORunnable task) {
+		return supplyAsync(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> supplyAsync(IOSupplier<T> task) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return task.get();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}, HttpExecution.fromThread((Executor) ccec));
+	}
+
+	/*
+	 * Waits for storage to complete, and rethrows if it fails.
+	 */
+	private void join(CompletableFuture<?> storage) throws Exception {
+		try {
+			storage.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			throw ex;
+		}
+	}
+
+	/*
+	 * Queues the check of the solution on a copy of the problem directory
+	 */
+	private ValidationJob startValidation(String problem, String version, Path problemDir,
+			ValidationJob.Publication publication) throws IOException {
 		Path newProblemDir = Files.createTempDirectory("problem");
 		Util.copyDirectory(problemDir, newProblemDir);
-		String studentId = Util.createPronouncableUID();
-		codeCheck.replaceParametersInDirectory(studentId, newProblemDir);
-		String run = check(problem, newProblemDir, studentId);
-		Util.deleteDirectory(newProblemDir);
+		ValidationJob validation = new ValidationJob(codeCheck, validationReports, repo, problem, version, newProblemDir, publication);
+		jobs.submit(validation);
+		return validation;
+	}
+
+	private Result validationResult(Http.Request request, String problem, Path problemDir, String jobID, String message) {
+		String response = validationPage(request, problem, problemDir, jobID, message);
+		return ok(response).as("text/html").addingToSession(request, "pid", problem);
+	}
+
+	/*
+	 * Yields a page that long-polls for the report, so that the upload doesn't wait for the check.
+	 */
+	private String validationPage(Http.Request request, String problem, Path problemDir, String jobID, String message) {
 		StringBuilder response = new StringBuilder();
 		response.append(
 				"<html><head><title></title><meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"/>");
@@ -200,29 +437,111 @@ public class Upload extends Controller {
 			String editURL = prefix + "private/problem/" + problem + "/" + editKey;
 			response.append("<br/>Edit URL (for you only): ");
 			response.append("<a href=\"" + editURL + "\" target=\"_blank\">" + editURL + "</a>");
+			String validationURL = prefix + "private/validation/" + problem + "/" + editKey;
+			response.append("<br/>Last successful check of the solution: ");
+			response.append("<a href=\"" + validationURL + "\" target=\"_blank\">" + validationURL + "</a>");
 		}
-		if (run == null)
-			response.append("<p>Fatal error: No report could be generated.</p>");
-		else
-			response.append(
-					"<br/><iframe height=\"400\" style=\"width: 90%; margin: 2em;\" src=\"data:text/html;base64," + run
-							+ "\"></iframe>");
-		response.append("</li>\n");
-		response.append("</ul><p></body></html>\n");
+		if (message != null)
+			response.append("<p id=\"message\">" + message + "</p>");
+		response.append("<p id=\"validation\">Checking the solution...</p>");
+		response.append("<iframe id=\"report\" height=\"400\" style=\"display: none; width: 90%; margin: 2em;\"></iframe>");
+		response.append("<script>\n");
+		response.append("(function poll() {\n");
+		response.append("  const validation = document.getElementById('validation')\n");
+		response.append("  const message = document.getElementById('message')\n");
+		response.append("  fetch('" + Util.prefix(request) + "/private/job/" + jobID + "?wait=30').then(response => {\n");
+		response.append("    if (response.status === 404) return null\n");
+		response.append("    if (!response.ok) throw new Error(response.statusText)\n");
+		response.append("    return response.json()\n");
+		response.append("  }).then(job => {\n");
+		response.append("    if (job === null)\n");
+		response.append("      validation.textContent = 'The check of the solution is no longer available. Use the link to the last successful check.'\n");
+		response.append("    else if (job.state === 'done') {\n");
+		response.append("      if (job.published && message) message.textContent = 'The problem has been published.'\n");
+		response.append("      validation.style.display = 'none'\n");
+		response.append("      const report = document.getElementById('report')\n");
+		response.append("      report.src = 'data:text/html;base64,' + job.report\n");
+		response.append("      report.style.display = 'block'\n");
+		response.append("    }\n");
+		response.append("    else if (job.state === 'failed') {\n");
+		response.append("      validation.textContent = 'Fatal error: No report could be generated. ' + (job.error || '')\n");
+		response.append("      if (job.published === false && message) message.textContent = 'The problem was not published. Any previous version was kept.'\n");
+		response.append("    }\n");
+		response.append("    else poll()\n");
+		response.append("  }).catch(() => setTimeout(poll, 5000))\n");
+		response.append("})()\n");
+		response.append("</script>\n");
+		response.append("</body></html>\n");
 		return response.toString();
 	}
 
+	/**
+	 * Called by the node that publishes a problem, before the manifest is stored.
+	 * The problem is warmed in the background.
+	 */
+	public Result warm(Http.Request request, String repo, String problem) {
+		if (!problemCache.isWarmKey(request.header(ProblemCache.WARM_KEY_HEADER).orElse(null)))
+			return forbidden();
+		JsonNode manifest = request.body().asJson();
+		if (manifest == null || !manifest.isObject() || !manifest.has("version") || !manifest.path("files").isObject())
+			return badRequest("Expected a manifest");
+		problemCache.warmInBackground(repo, problem, (ObjectNode) manifest);
+		return status(ACCEPTED);
+	}
+
+	/**
+	 * Shows the report of the last successful check of the solution, without checking it again
+	 */
+	public Result lastValidation(Http.Request request, String problem, String editKey) {
+		try {
+			if (!checkEditKey(problem, editKey))
+				return badRequest("Wrong edit key " + editKey + " of problem " + problem);
+			ObjectNode result = validationReports.load(repo, problem);
+			if (result == null)
+				return notFound("The solution of problem " + problem + " has not been checked successfully");
+			byte[] report = Base64.getDecoder().decode(result.get("report").asText());
+			return ok(report).as("text/html; charset=UTF-8");
+		} catch (IOException ex) {
+			return badRequest("Problem not found: " + problem);
+		} catch (Exception ex) {
+			return internalServerError(Util.getStackTrace(ex));
+		}
+	}
+
+	/**
+	 * Starts regrading the saved work for a problem after it has been edited.
+	 * The request body is { assignments: [ assignment ID or LTI resource ID, ... ] }
+	 */
+	public Result regrade(Http.Request request, String problem, String editKey) {
+		try {
+			if (!checkEditKey(problem, editKey))
+				return badRequest("Wrong edit key " + editKey + " of problem " + problem);
+			JsonNode json = request.body().asJson();
+			if (json == null || !json.path("assignments").isArray() || json.get("assignments").size() == 0)
+				return badRequest("Expected JSON with assignments");
+			List<String> assignments = new ArrayList<>();
+			for (JsonNode assignment : json.get("assignments")) assignments.add(assignment.asText());
+			String jobID = jobs.submit(new RegradeJob(codeCheck, s3conn, repo, problem, request.host(), assignments));
+			ObjectNode result = JsonNodeFactory.instance.objectNode();
+			result.put("jobID", jobID);
+			result.put("statusURL", Util.prefix(request) + "/private/job/" + jobID);
+			return ok(result);
+		} catch (IOException ex) {
+			return badRequest("Problem not found: " + problem);
+		} catch (Exception ex) {
+			return internalServerError(Util.getStackTrace(ex));
+		}
+	}
+
 	public Result editKeySubmit(Http.Request request, String problem, String editKey) {
 		if (problem.equals(""))
 			return badRequest("No problem id");
 		try {
+			if (!checkEditKey(problem, editKey))
+				return badRequest("Wrong edit key " + editKey + " for problem " + problem);
 			Path problemDir = null;
 			try {
 				problemDir = codeCheck.loadProblem(repo, problem);
-				String correctEditKey = Util.read(problemDir, "edit.key");
-				if (correctEditKey == null || !editKey.equals(correctEditKey.trim())) {
-					return badRequest("Wrong edit key " + editKey + " for problem " + problem);
-				}
 				Map<String, String> filesAndContents = new TreeMap<>();
 				List<Path> entries = Files.list(problemDir).collect(Collectors.toList());
 				for (Path f : entries) {
@@ -232,7 +551,7 @@ public class Upload extends Controller {
 						return badRequest("Cannot edit problem with directories");
 				}
 				filesAndContents.remove("edit.key");
-				return ok(views.html.edit.render(problem, filesAndContents, correctEditKey));
+				return ok(views.html.edit.render(problem, filesAndContents, editKey));
 			} finally {
 				Util.deleteDirectory(problemDir);
 			}
@@ -242,70 +561,4 @@ public class Upload extends Controller {
 			return internalServerError(Util.getStackTrace(ex));
 		}
 	}
-
-	// In case the zip file contains an initial directory
-	// TODO: Crazily wasteful--unzip and then fix
-	private static void fixZip(Path zipPath) throws IOException {
-		try (FileSystem zipfs = FileSystems.newFileSystem(zipPath, null)) {
-			Path root = zipfs.getPath("/");
-			try (Stream<Path> rootEntries = Files.list(root)) {
-				Set<Path> result = rootEntries.filter(Files::isDirectory).collect(Collectors.toSet());
-				result.remove(zipfs.getPath("/__MACOSX/")); // Zip directory paths end in /
-				if (result.size() == 1) {
-					Path child = result.iterator().next();
-					if (!child.toString().equals("/student/")) { // One subdirectory, not named student
-						try (Stream<Path> entries = Files.list(child)) {
-							result = entries.collect(Collectors.toSet());
-							Files.walkFileTree(child, new SimpleFileVisitor<Path>() {
-								public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-										throws IOException {
-									int n = dir.getNameCount();
-									if (n > 1) {
-										Path q = root.resolve(dir.subpath(1, n));
-										Files.createDirectory(q);
-									}
-									return FileVisitResult.CONTINUE;
-								}
-
-								public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
-									int n = p.getNameCount();
-									if (n > 1) {
-										Path q = root.resolve(p.subpath(1, n));
-										Files.move(child.resolve(p), q);
-									}
-									return FileVisitResult.CONTINUE;
-								}
-
-								public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
-									if (e != null)
-										throw e;
-									Files.delete(dir);
-									return FileVisitResult.CONTINUE;
-								}
-							});
-						}
-					}
-				}
-			}
-		}
-	}
-
-	private String check(String problem, Path problemDir, String studentId)
-			throws IOException, InterruptedException, NoSuchMethodException, ScriptException {
-		Path submissionDir = codeCheck.createSubmissionDirectory();
-		// Copy solution files
-		Path solutionDir = problemDir.resolve("solution");
-		if (Files.exists(solutionDir)) {
-			for (Path p : Util.getDescendantFiles(solutionDir))
-				Files.copy(solutionDir.resolve(p), submissionDir.resolve(p));
-		} else {
-			boolean runMode = Files.exists(problemDir.resolve("Input"));
-			Util.forEachFile(problemDir, p -> {
-				if (runMode || Problem.isSolution(p))
-					Files.copy(p, submissionDir.resolve(p.getFileName()));
-			});
-		}
-		codeCheck.run("html", repo, problem, studentId, submissionDir);
-		return Util.base64(submissionDir, "report.html");
-	}
 }
@@ -0,0 +1,350 @@
+package models;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/*
+  Jobs such as problem validation and regrading. Validation runs on its own small
+  pool, since an author waits for it. Jobs that can wait, such as regrading, are
+  IdleJobs. Their steps run on a pool of minimum-priority threads, and only while
+  fewer than idleThreshold checks are running, so that they only use check
+  capacity that students don't need. When there is none, the next step is
+  rescheduled after idlePoll, without holding on to a thread. Jobs are kept by ID
+  for status queries until they are among the oldest when the map is full.
+
+  Since a job runs on the node where it was submitted, its status is also stored
+  in com.horstmann.codecheck.jobs.statusRepo, as jobs/<id> in its bucket or as
+  <id>.json in its local directory. That repo holds no problems. The status is
+  stored when the job is submitted, every statusInterval while it runs if it has
+  changed, and when the job is finished. Only the final status has the report.
+  Other nodes report the stored status. It is deleted after statusRetention. The
+  bucket should also expire jobs/ with a lifecycle rule, for statuses that a
+  restarted node didn't get to delete.
+*/
+
+@Singleton
+public class BackgroundJobs {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	private static final int MAX_JOBS = 1000;
+	private static final String JOBS = "jobs/";
+
+	private CodeCheck codeCheck;
+	private ExecutorService executor; // For jobs that aren't IdleJobs
+	private ScheduledExecutorService idleExecutor;
+	private int idleThreshold;
+	private long idlePoll; // milliseconds
+	private S3Connection s3conn;
+	private Config config;
+	private String statusRepo;
+	private long statusRetention; // milliseconds
+	private ScheduledExecutorService statusWriter;
+	private Set<Job> running = ConcurrentHashMap.newKeySet();
+	private ObjectMapper mapper = new ObjectMapper();
+	private Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>() {
+		protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+			return size() > MAX_JOBS;
+		}
+	});
+
+	public static abstract class Job {
+		private String id = Util.createPrivateUID();
+		private String description;
+		private volatile String state = "queued";
+		private volatile String error;
+		private volatile Instant startedAt;
+		private volatile Instant finishedAt;
+		protected volatile int total = -1; // Unknown
+		protected volatile int done;
+		protected volatile int skipped;
+		protected volatile int failed;
+		private CompletableFuture<Void> finished = new CompletableFuture<>();
+		private String storedStatus; // Guarded by this
+
+		protected Job(String description) {
+			this.description = description;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public boolean isFinished() {
+			return finishedAt != null;
+		}
+
+		public boolean hasFailed() {
+			return state.equals("failed");
+		}
+
+		/**
+		 * Yields a stage that completes when the job is done or has failed.
+		 */
+		public CompletionStage<Void> whenFinished() {
+			return finished;
+		}
+
+		/**
+		 * Does the work, or, in an IdleJob, prepares the steps.
+		 */
+		protected abstract void run() throws Exception;
+
+		/**
+		 * Override to add job-specific results to the status.
+		 */
+		protected void addStatus(ObjectNode result) {
+		}
+
+		public ObjectNode status() {
+			ObjectNode result = JsonNodeFactory.instance.objectNode();
+			result.put("id", id);
+			result.put("description", description);
+			result.put("state", state);
+			if (error != null) result.put("error", error);
+			if (startedAt != null) result.put("startedAt", startedAt.toString());
+			if (finishedAt != null) result.put("finishedAt", finishedAt.toString());
+			if (total >= 0) result.put("total", total);
+			result.put("done", done);
+			result.put("skipped", skipped);
+			result.put("failed", failed);
+			int processed = done + skipped + failed;
+			if (startedAt != null && finishedAt == null && total > 0 && processed > 0) {
+				long elapsed = Duration.between(startedAt, Instant.now()).toMillis();
+				result.put("etaSeconds", elapsed * (total - processed) / processed / 1000);
+			}
+			addStatus(result);
+			return result;
+		}
+	}
+
+	/**
+	 * A job that only uses idle check capacity, in steps.
+	 */
+	public static abstract class IdleJob extends Job {
+		protected IdleJob(String description) {
+			super(description);
+		}
+
+		/**
+		 * Does the next unit of work, such as one check.
+		 * @return true if there is more work
+		 */
+		protected abstract boolean step() throws Exception;
+
+		/**
+		 * Called when the job is done or has failed.
+		 */
+		protected void cleanup() {
+		}
+	}
+
+	public @Inject BackgroundJobs(Config config, CodeCheck codeCheck, S3Connection s3conn, ApplicationLifecycle lifecycle) {
+		this.codeCheck = codeCheck;
+		this.s3conn = s3conn;
+		this.config = config;
+		String prefix = "com.horstmann.codecheck.jobs.";
+		idleThreshold = config.getInt(prefix + "idleThreshold");
+		idlePoll = config.getDuration(prefix + "idlePoll").toMillis();
+		statusRepo = config.getString(prefix + "statusRepo");
+		statusRetention = config.getDuration(prefix + "statusRetention").toMillis();
+		long statusInterval = config.getDuration(prefix + "statusInterval").toMillis();
+		statusWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "codecheck-job-status");
+			t.setDaemon(true);
+			return t;
+		});
+		statusWriter.scheduleWithFixedDelay(() -> {
+			for (Job job : running) storeStatus(job);
+		}, statusInterval, statusInterval, TimeUnit.MILLISECONDS);
+		if (!s3conn.isOnS3(statusRepo)) statusWriter.execute(this::deleteStaleStatus);
+		executor = Executors.newFixedThreadPool(config.getInt(prefix + "validationThreads"), r -> {
+			Thread t = new Thread(r, "codecheck-validation");
+			t.setDaemon(true);
+			return t;
+		});
+		idleExecutor = Executors.newScheduledThreadPool(config.getInt(prefix + "threads"), r -> {
+			Thread t = new Thread(r, "codecheck-background");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+		lifecycle.addStopHook(() -> {
+			executor.shutdownNow();
+			idleExecutor.shutdownNow();
+			statusWriter.shutdownNow();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	public String submit(Job job) {
+		jobs.put(job.id, job);
+		storeStatus(job);
+		if (job instanceof IdleJob)
+			idleExecutor.execute(() -> {
+				if (start(job)) step((IdleJob) job);
+			});
+		else
+			executor.execute(() -> {
+				if (start(job)) finish(job, null);
+			});
+		return job.id;
+	}
+
+	/*
+	 * Runs the job, and returns false if it failed.
+	 */
+	private boolean start(Job job) {
+		job.startedAt = Instant.now();
+		job.state = "running";
+		running.add(job);
+		try {
+			job.run();
+			return true;
+		} catch (Exception ex) {
+			finish(job, ex);
+			return false;
+		}
+	}
+
+	private void step(IdleJob job) {
+		try {
+			if (codeCheck.getActiveRuns() >= idleThreshold)
+				idleExecutor.schedule(() -> step(job), idlePoll, TimeUnit.MILLISECONDS);
+			else if (job.step())
+				idleExecutor.execute(() -> step(job)); // Behind the steps of other jobs
+			else
+				finish(job, null);
+		} catch (Exception ex) {
+			finish(job, ex);
+		}
+	}
+
+	private void finish(Job job, Exception ex) {
+		if (ex == null)
+			job.state = "done";
+		else {
+			logger.warn("Background job " + job.description + " failed", ex);
+			job.error = ex.getMessage();
+			job.state = "failed";
+		}
+		if (job instanceof IdleJob) {
+			try {
+				((IdleJob) job).cleanup();
+			} catch (RuntimeException ex2) {
+				logger.warn("Cannot clean up after background job " + job.description, ex2);
+			}
+		}
+		job.finishedAt = Instant.now();
+		running.remove(job);
+		storeStatus(job);
+		job.finished.complete(null);
+		statusWriter.schedule(() -> deleteStatus(job.id), statusRetention, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets a job.
+	 * @param id the job ID
+	 * @return the job, or null if there is no such job
+	 */
+	public Job get(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Gets the stored status of a job, which may have run on another node.
+	 * @param id the job ID
+	 * @return the status, or null if there is no such job
+	 */
+	public ObjectNode loadStatus(String id) throws IOException {
+		if (!id.matches("[0-9A-Z]+")) return null;
+		String contents;
+		if (s3conn.isOnS3(statusRepo))
+			contents = s3conn.readFromS3IfExists(statusRepo, JOBS + id);
+		else
+			contents = Util.read(localPath(id));
+		return contents == null ? null : (ObjectNode) mapper.readTree(contents);
+	}
+
+	/*
+	 * Synchronized so that a periodic write can't overwrite the final status
+	 */
+	private void storeStatus(Job job) {
+		synchronized (job) {
+			try {
+				ObjectNode status = job.status();
+				status.remove("etaSeconds"); // Changes all the time
+				if (!job.isFinished()) status.remove("report");
+				String contents = mapper.writeValueAsString(status);
+				if (contents.equals(job.storedStatus)) return;
+				if (s3conn.isOnS3(statusRepo))
+					s3conn.putToS3(contents, statusRepo, JOBS + job.id);
+				else {
+					Path path = localPath(job.id);
+					Files.createDirectories(path.getParent());
+					Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+				}
+				job.storedStatus = contents;
+			} catch (Exception ex) {
+				logger.warn("Cannot store status of background job " + job.description, ex);
+			}
+		}
+	}
+
+	private void deleteStatus(String id) {
+		try {
+			if (s3conn.isOnS3(statusRepo))
+				s3conn.deleteFromS3(statusRepo, JOBS + id);
+			else
+				Files.deleteIfExists(localPath(id));
+		} catch (Exception ex) {
+			logger.warn("Cannot delete status of background job " + id, ex);
+		}
+	}
+
+	/*
+	 * Deletes the statuses that weren't deleted before the last shutdown
+	 */
+	private void deleteStaleStatus() {
+		Path dir = localPath("x").getParent();
+		if (!Files.isDirectory(dir)) return;
+		long cutoff = System.currentTimeMillis() - statusRetention;
+		try (Stream<Path> paths = Files.list(dir)) {
+			for (Path path : Util.iterable(paths.iterator()))
+				if (path.toString().endsWith(".json") && Files.getLastModifiedTime(path).toMillis() < cutoff)
+					Files.deleteIfExists(path);
+		} catch (IOException ex) {
+			logger.warn("Cannot delete stale statuses of background jobs", ex);
+		}
+	}
+
+	private Path localPath(String id) {
+		return Paths.get(config.getString("com.horstmann.codecheck.repo." + statusRepo)).resolve(id + ".json");
+	}
+}
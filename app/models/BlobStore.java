@@ -0,0 +1,384 @@
+package models;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import play.Logger;
+
+/*
+  Content-addressed storage of problem files, alongside the zip file per problem.
+  In the repo bucket, manifests/<problem> is a JSON object
+  { version, files: { path: hash } } and blobs/<hash> holds the contents of a file,
+  where hash is the hex SHA-256 of the contents. Files that are shared by several
+  problems, such as jars, images, and test harnesses, are stored once.
+
+  Once a problem has a manifest, the manifest is authoritative. Edits in the browser
+  patch the manifest, and the problem zip is rewritten from the patched files.
+
+  Blobs never change, so they are cached in a local directory that is shared by
+  all problems, with a subdirectory for each repo. Only blobs that are already in
+  the repo's bucket are put into its subdirectory, so a cached blob need not be
+  uploaded again. When the cache grows beyond com.horstmann.codecheck.blobs.cacheSize,
+  the least recently used blobs are deleted.
+
+  Requests for a problem get its manifest with getManifest, which keeps it for
+  com.horstmann.codecheck.problems.manifestTTL. When a node is warmed for a new
+  version (see ProblemCache), the manifest isn't cached until that version is
+  read, so that the new version is seen as soon as it is published.
+*/
+
+@Singleton
+public class BlobStore {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	private static final String MANIFESTS = "manifests/";
+	private static final String BLOBS = "blobs/";
+	private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+	// An atomic publication waits for the check of the solution, see Upload.publishAfterCheck
+	private static final long EXPECTED_VERSION_WAIT = 10 * 60 * 1000; // milliseconds
+
+	private S3Connection s3conn;
+	private Path cacheDir;
+	private long maxCacheSize; // bytes
+	private long cacheSize; // bytes
+	private LinkedHashMap<Path, Long> cachedSizes = new LinkedHashMap<>(16, 0.75f, true); // In LRU order
+	private ObjectMapper mapper = new ObjectMapper();
+
+	private static class CachedManifest {
+		ObjectNode manifest; // null if the problem has none
+		long expires; // milliseconds
+	}
+
+	private static class ExpectedVersion {
+		String version;
+		long until; // milliseconds
+	}
+
+	private long manifestTTL; // milliseconds
+	private Map<String, CachedManifest> manifests;
+	private Map<String, ExpectedVersion> expectedVersions = new ConcurrentHashMap<>();
+
+	public @Inject BlobStore(Config config, S3Connection s3conn) {
+		this.s3conn = s3conn;
+		cacheDir = Paths.get(config.getString("com.horstmann.codecheck.blobs.cache")).toAbsolutePath().normalize();
+		maxCacheSize = config.getBytes("com.horstmann.codecheck.blobs.cacheSize");
+		manifestTTL = config.getDuration("com.horstmann.codecheck.problems.manifestTTL").toMillis();
+		int size = config.getInt("com.horstmann.codecheck.problems.cacheSize");
+		manifests = Collections.synchronizedMap(new LinkedHashMap<String, CachedManifest>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, CachedManifest> eldest) {
+				return size() > size;
+			}
+		});
+		try {
+			Files.createDirectories(cacheDir);
+			indexCache();
+		} catch (IOException ex) {
+			logger.error("Cannot create blob cache " + cacheDir, ex);
+		}
+	}
+
+	/*
+	 * Puts the blobs that are left from before a restart into the LRU order, oldest first.
+	 * Temporary files and blobs outside of repo directories (from an older layout) are deleted.
+	 */
+	private void indexCache() throws IOException {
+		List<Path> blobs = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(cacheDir, 2)) {
+			for (Path p : Util.iterable(paths.filter(Files::isRegularFile).iterator())) {
+				if (p.getParent().equals(cacheDir) || !HASH.matcher(p.getFileName().toString()).matches())
+					Files.deleteIfExists(p);
+				else
+					blobs.add(p);
+			}
+		}
+		Map<Path, FileTime> modified = new HashMap<>();
+		for (Path p : blobs) modified.put(p, Files.getLastModifiedTime(p));
+		blobs.sort(Comparator.comparing(modified::get));
+		for (Path p : blobs) cached(p, Files.size(p));
+	}
+
+	/**
+	 * Stores the files of a problem as blobs. The problem is published when
+	 * its manifest is written with writeManifest.
+	 * @param problemDir the directory with the problem files
+	 * @param version the version of the problem
+	 * @return the manifest
+	 */
+	public ObjectNode storeFiles(String repo, Path problemDir, String version) throws IOException {
+		ObjectNode manifest = JsonNodeFactory.instance.objectNode();
+		manifest.put("version", version);
+		ObjectNode files = manifest.putObject("files");
+		for (Path p : Util.getDescendantFiles(problemDir)) {
+			Path file = problemDir.resolve(p);
+			String hash;
+			try (InputStream in = Files.newInputStream(file)) {
+				hash = hash(in);
+			}
+			if (!isCached(repo, hash)) {
+				if (!s3conn.isOnS3(repo, BLOBS + hash))
+					s3conn.putToS3(file, repo, BLOBS + hash);
+				addToCache(repo, hash, temp -> Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING));
+			}
+			files.put(p.toString().replace('\\', '/'), hash);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Makes a new version of a problem by patching its manifest. Only the blobs
+	 * of changed files are stored. The new version is published when its manifest
+	 * is written with writeManifest.
+	 * @param manifest the current manifest
+	 * @param changed the new or changed files and their contents
+	 * @param deleted the files to remove
+	 * @param version the new version
+	 * @return the new manifest
+	 */
+	public ObjectNode patchFiles(String repo, ObjectNode manifest,
+			Map<String, String> changed, Set<String> deleted, String version) throws IOException {
+		ObjectNode result = manifest.deepCopy();
+		result.put("version", version);
+		ObjectNode files = (ObjectNode) result.get("files");
+		files.remove(deleted);
+		for (Map.Entry<String, String> entry : changed.entrySet()) {
+			byte[] contents = entry.getValue().getBytes(StandardCharsets.UTF_8);
+			String hash = hash(new ByteArrayInputStream(contents));
+			if (!isCached(repo, hash)) {
+				if (!s3conn.isOnS3(repo, BLOBS + hash))
+					s3conn.putToS3(entry.getValue(), repo, BLOBS + hash);
+				addToCache(repo, hash, temp -> Files.write(temp, contents));
+			}
+			files.put(entry.getKey(), hash);
+		}
+		return result;
+	}
+
+	public void writeManifest(String repo, String problem, ObjectNode manifest) throws IOException {
+		s3conn.putToS3(mapper.writeValueAsString(manifest), repo, MANIFESTS + problem);
+		String key = repo + "/" + problem;
+		expectedVersions.remove(key);
+		cacheManifest(key, manifest);
+	}
+
+	/**
+	 * Reads the manifest of a problem from S3. Use this when the current version
+	 * is required, such as for patching the manifest.
+	 * @return the manifest, or null if the problem was not stored as blobs
+	 */
+	public ObjectNode readManifest(String repo, String problem) throws IOException {
+		String manifest = s3conn.readFromS3IfExists(repo, MANIFESTS + problem);
+		return manifest == null ? null : (ObjectNode) mapper.readTree(manifest);
+	}
+
+	/**
+	 * Gets the manifest of a problem for a request, from the cache if it hasn't expired.
+	 * @return the manifest, or null if the problem was not stored as blobs
+	 */
+	public ObjectNode getManifest(String repo, String problem) throws IOException {
+		String key = repo + "/" + problem;
+		long now = System.currentTimeMillis();
+		ExpectedVersion expected = expectedVersions.get(key);
+		if (expected != null && now >= expected.until) { // Not published after all
+			expectedVersions.remove(key, expected);
+			expected = null;
+		}
+		if (expected == null) {
+			CachedManifest cached = manifests.get(key);
+			if (cached != null && now < cached.expires) return cached.manifest;
+		}
+		ObjectNode manifest = readManifest(repo, problem);
+		if (expected != null && manifest != null && manifest.path("version").asText().equals(expected.version)) {
+			expectedVersions.remove(key, expected);
+			expected = null;
+		}
+		if (expected == null) cacheManifest(key, manifest);
+		return manifest;
+	}
+
+	/**
+	 * Stops caching the manifest of a problem until the given version is published.
+	 * Called when the node is warmed for that version.
+	 */
+	public void expectManifest(String repo, String problem, ObjectNode manifest) {
+		String key = repo + "/" + problem;
+		ExpectedVersion expected = new ExpectedVersion();
+		expected.version = manifest.path("version").asText();
+		expected.until = System.currentTimeMillis() + EXPECTED_VERSION_WAIT;
+		expectedVersions.put(key, expected);
+		manifests.remove(key);
+	}
+
+	private void cacheManifest(String key, ObjectNode manifest) {
+		CachedManifest cached = new CachedManifest();
+		cached.manifest = manifest;
+		cached.expires = System.currentTimeMillis() + manifestTTL;
+		manifests.put(key, cached);
+	}
+
+	/**
+	 * Assembles a problem from cached blobs, fetching those that aren't cached yet.
+	 * @return a temporary directory with the problem files (delete when done),
+	 * or null if the problem was not stored as blobs
+	 */
+	public Path loadProblem(String repo, String problem) throws IOException {
+		ObjectNode manifest = readManifest(repo, problem);
+		return manifest == null ? null : loadProblem(repo, manifest);
+	}
+
+	/**
+	 * Assembles a problem from a manifest that was already read.
+	 * @return a temporary directory with the problem files (delete when done)
+	 */
+	public Path loadProblem(String repo, ObjectNode manifest) throws IOException {
+		Path problemDir = Files.createTempDirectory("problem");
+		try {
+			for (Map.Entry<String, JsonNode> entry : Util.iterable(manifest.get("files").fields())) {
+				Path target = problemDir.resolve(entry.getKey()).normalize();
+				if (!target.startsWith(problemDir)) throw new IOException("Bad manifest entry " + entry.getKey());
+				Files.createDirectories(target.getParent());
+				// Copy, not link--parameterization rewrites files in place
+				String hash = entry.getValue().asText();
+				try {
+					Files.copy(getBlob(repo, hash), target);
+				} catch (NoSuchFileException ex) { // Evicted in the meantime
+					s3conn.getFromS3(repo, BLOBS + hash, target);
+				}
+			}
+			return problemDir;
+		} catch (IOException ex) {
+			Util.deleteDirectory(problemDir);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reads a blob, from the local cache if possible.
+	 * @param hash the hex SHA-256 of the contents
+	 */
+	public byte[] readBlob(String repo, String hash) throws IOException {
+		try {
+			return Files.readAllBytes(getBlob(repo, hash));
+		} catch (NoSuchFileException ex) { // Evicted in the meantime
+			Path temp = Files.createTempFile("blob", ".tmp");
+			try {
+				s3conn.getFromS3(repo, BLOBS + hash, temp);
+				return Files.readAllBytes(temp);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/*
+	 * Gets a blob from the local cache, fetching it if it isn't cached yet. The
+	 * file can be evicted at any time after this method returns.
+	 */
+	private Path getBlob(String repo, String hash) throws IOException {
+		if (!HASH.matcher(hash).matches()) throw new IOException("Bad blob hash " + hash);
+		Path cached = repoDir(repo).resolve(hash);
+		if (!isCached(repo, hash))
+			addToCache(repo, hash, temp -> s3conn.getFromS3(repo, BLOBS + hash, temp));
+		return cached;
+	}
+
+	private boolean isCached(String repo, String hash) throws IOException {
+		Path cached = repoDir(repo).resolve(hash);
+		synchronized (cachedSizes) {
+			return cachedSizes.get(cached) != null; // Also moves the blob to the end of the LRU order
+		}
+	}
+
+	/*
+	 * Puts a blob into the cache. The blob is written to a temporary file first, so that
+	 * a partially written blob is never seen in the cache.
+	 */
+	private void addToCache(String repo, String hash, Util.EConsumer<Path, IOException> writer) throws IOException {
+		Path repoDir = repoDir(repo);
+		Files.createDirectories(repoDir);
+		Path temp = Files.createTempFile(repoDir, hash, ".tmp");
+		try {
+			writer.accept(temp);
+			Path cached = repoDir.resolve(hash);
+			Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			cached(cached, Files.size(cached));
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Path repoDir(String repo) throws IOException {
+		Path repoDir = cacheDir.resolve(repo).normalize();
+		if (!cacheDir.equals(repoDir.getParent())) throw new IOException("Bad repo " + repo);
+		return repoDir;
+	}
+
+	/*
+	 * Records a blob that is now in the cache, and evicts the least recently used
+	 * blobs while the cache is too large.
+	 */
+	private void cached(Path blob, long size) {
+		List<Path> evicted = new ArrayList<>();
+		synchronized (cachedSizes) {
+			Long previous = cachedSizes.put(blob, size);
+			cacheSize += size - (previous == null ? 0 : previous);
+			Iterator<Map.Entry<Path, Long>> iter = cachedSizes.entrySet().iterator();
+			while (cacheSize > maxCacheSize && cachedSizes.size() > 1) {
+				Map.Entry<Path, Long> eldest = iter.next();
+				cacheSize -= eldest.getValue();
+				evicted.add(eldest.getKey());
+				iter.remove();
+			}
+		}
+		for (Path p : evicted) {
+			try {
+				Files.deleteIfExists(p);
+			} catch (IOException ex) {
+				logger.warn("Cannot evict blob " + p, ex);
+			}
+		}
+	}
+
+	private static String hash(InputStream in) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buf = new byte[1 << 16];
+			int len;
+			while ((len = in.read(buf)) > 0)
+				digest.update(buf, 0, len);
+			return String.format("%064x", new BigInteger(1, digest.digest()));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+	}
+}
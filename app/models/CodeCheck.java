@@ -3,12 +3,28 @@ package models;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -17,23 +33,53 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.Config;
 
+import play.Logger;
 import play.api.Environment;
+import play.inject.ApplicationLifecycle;
 
 @Singleton
 public class CodeCheck {
-	@Inject private Config config;
+	private Config config;
 	@Inject private S3Connection s3conn;
+	@Inject private WorkspaceManager workspaceManager;
+	@Inject private BlobStore blobStore;
+	@Inject private ProblemCache problemCache;
 	public static final int TIMEOUT = (2 * 60 + 15) * 1000; // 2 minutes 15 seconds 
+	private AtomicInteger activeRuns = new AtomicInteger();
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	private ExecutorService prefetchExecutor; // Rejects prefetches when its queue is full
+	private Set<String> prefetching = ConcurrentHashMap.newKeySet(); // Keys of queued prefetches
+	private Semaphore checkPermits; // Shared by all checks, so that a batch can't crowd out single checks
 
+	@Inject public CodeCheck(Config config, ApplicationLifecycle lifecycle) {
+		this.config = config;
+		checkPermits = new Semaphore(config.getInt("com.horstmann.codecheck.check.maxConcurrent"), true);
+		int threads = config.getInt("com.horstmann.codecheck.problems.prefetchThreads");
+		prefetchExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(config.getInt("com.horstmann.codecheck.problems.prefetchQueue")), r -> {
+				Thread t = new Thread(r, "codecheck-prefetch");
+				t.setDaemon(true);
+				return t;
+			}, new ThreadPoolExecutor.AbortPolicy()); // So that prefetch can forget the key
+		lifecycle.addStopHook(() -> {
+			prefetchExecutor.shutdownNow();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	// Number of codecheck processes that are currently running
+	public int getActiveRuns() {
+		return activeRuns.get();
+	}
+
+	// The WorkspaceManager reclaims the directory after the retention period
 	public Path createSubmissionDirectory()
 			throws IOException {
-		String dirName = config.getString("com.horstmann.codecheck.submissions");
-		Path dir = Paths.get(dirName);
-		if (!Files.exists(dir))
-			Files.createDirectory(dir);
-		return Util.createTempDirectory(dir);
+		return workspaceManager.createWorkspace();
 	}	
 	
 	public Path loadProblem(String repo, String problemName, String studentId) throws IOException, ScriptException, NoSuchMethodException {
@@ -43,6 +89,137 @@ public class CodeCheck {
 		return problemPath;
 	}
 
+	/**
+	 * Gets the parsed files of a problem for a student. A problem with a manifest
+	 * that doesn't use param.js is parsed once per version.
+	 */
+	public ProblemData getProblemData(String repo, String problemName, String studentId)
+			throws IOException, ScriptException, NoSuchMethodException {
+		Path problemPath = null;
+		try {
+			ObjectNode manifest = s3conn.isOnS3(repo) ? blobStore.getManifest(repo, problemName) : null;
+			if (manifest != null) {
+				ProblemData data = problemCache.getData(repo, problemName, manifest);
+				if (data != null) return data;
+				String tag = tag(manifest, studentId);
+				data = problemCache.getVariant(repo, problemName, tag);
+				if (data != null) return data;
+				problemPath = blobStore.loadProblem(repo, manifest);
+				replaceParametersInDirectory(studentId, problemPath);
+				data = new Problem(problemPath, problemCache.imageURLs(repo, manifest)).getData();
+				problemCache.putVariant(repo, problemName, tag, data);
+				return data;
+			}
+			problemPath = loadProblem(repo, problemName, studentId);
+			return new Problem(problemPath).getData();
+		} finally {
+			if (problemPath != null) Util.deleteDirectory(problemPath);
+		}
+	}
+
+	/**
+	 * Gets a tag for the data of a problem as seen by a student. Only the manifest is read.
+	 * The tag is the (alphanumeric) problem version, followed by a dash and a hash of the
+	 * student ID if the problem uses param.js.
+	 * @return the tag, or null if the problem has no version
+	 */
+	public String getProblemTag(String repo, String problemName, String studentId) throws IOException {
+		if (!s3conn.isOnS3(repo)) return null;
+		ObjectNode manifest = blobStore.getManifest(repo, problemName);
+		if (manifest == null) return null;
+		return tag(manifest, studentId);
+	}
+
+	private static String tag(ObjectNode manifest, String studentId) {
+		String version = manifest.get("version").asText();
+		if (!manifest.get("files").has("param.js")) return version;
+		return version + "-" + UUID.nameUUIDFromBytes(studentId.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Loads the CodeCheck problems of an assignment in the background, so that the
+	 * requests for them find the problem files, the parsed problems, and the variants
+	 * of problems with param.js in the caches. Problems on other servers and problems
+	 * without a manifest are skipped.
+	 * @param problems the problems of the student's group, each with a URL
+	 * @param host the host (and port) of this server
+	 * @param studentId the ID that the student's problem requests will use, or null
+	 * if it isn't known. Then only the problem files are loaded for problems with param.js.
+	 */
+	public void prefetch(JsonNode problems, String host, String studentId) {
+		for (JsonNode problem : problems) {
+			String[] repoAndProblem = repoAndProblem(problem.path("URL").asText(), host);
+			if (repoAndProblem == null) continue;
+			String repo = repoAndProblem[0];
+			String problemName = repoAndProblem[1];
+			String key = repo + "/" + problemName + "/" + studentId;
+			if (!prefetching.add(key)) continue;
+			try {
+				prefetchExecutor.execute(() -> {
+					try {
+						if (!s3conn.isOnS3(repo)) return;
+						ObjectNode manifest = blobStore.getManifest(repo, problemName);
+						if (manifest == null) return;
+						if (studentId != null)
+							getProblemData(repo, problemName, studentId);
+						else if (problemCache.getData(repo, problemName, manifest) == null) // Parameterized
+							Util.deleteDirectory(blobStore.loadProblem(repo, manifest));
+					} catch (Exception ex) {
+						logger.warn("Cannot prefetch " + repo + "/" + problemName, ex);
+					} finally {
+						prefetching.remove(key);
+					}
+				});
+			} catch (RejectedExecutionException ex) { // Queue full or shutting down, a prefetch is only a hint
+				prefetching.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Gets the repo and problem of a /files URL on this server.
+	 * @param host the host (and port) of this server
+	 * @return the repo and problem, or null if the URL is something else
+	 */
+	public static String[] repoAndProblem(String url, String host) {
+		URI uri;
+		try {
+			uri = new URI(url);
+		} catch (URISyntaxException ex) {
+			return null;
+		}
+		if (uri.getHost() == null || uri.getPath() == null) return null;
+		String authority = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+		if (!authority.equalsIgnoreCase(host)) return null;
+		String path = uri.getPath();
+		if (path.startsWith("/codecheck/")) path = path.substring("/codecheck".length());
+		String[] segments = path.split("/");
+		if (segments.length < 2 || !segments[1].equals("files")) return null;
+		String repo = "ext";
+		String problem = null;
+		if (segments.length == 3) problem = segments[2];
+		else if (segments.length == 4) {
+			repo = segments[2];
+			problem = segments[3];
+		} else if (segments.length == 2 && uri.getRawQuery() != null) {
+			for (String param : uri.getRawQuery().split("&")) {
+				int n = param.indexOf('=');
+				if (n == -1) continue;
+				String name = param.substring(0, n);
+				String value;
+				try {
+					value = URLDecoder.decode(param.substring(n + 1), "UTF-8");
+				} catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+					return null;
+				}
+				if (name.equals("repo")) repo = value;
+				else if (name.equals("problem")) problem = value;
+			}
+		}
+		if (problem == null || problem.isEmpty() || repo.isEmpty()) return null;
+		return new String[] { repo, problem };
+	}
+
 	@Inject Environment playEnv;
 	
 	public void replaceParametersInDirectory(String studentId, Path problemPath)
@@ -100,7 +277,9 @@ public class CodeCheck {
 	
 	public Path loadProblem(String repo, String problemName) throws IOException {
 		if (s3conn.isOnS3(repo)) {
-			return s3conn.unzipFromS3(repo, problemName);
+			Path problemDir = blobStore.loadProblem(repo, problemName);
+			if (problemDir != null) return problemDir;
+			return s3conn.unzipFromS3(repo, problemName); // Not stored as blobs
 		} else {
 			Path repoPath = Paths.get(config.getString("com.horstmann.codecheck.repo."
 							+ repo));
@@ -112,16 +291,68 @@ public class CodeCheck {
 			return problemDir;
 		}
 	}
+
+	public static final String EDIT_KEY_METADATA = "edit-key";
+
+	/**
+	 * Gets the edit key of a problem without loading the problem. On S3, the edit key
+	 * is stored as object metadata when the problem is uploaded, and it is read with
+	 * a single metadata request each time, so that a new upload on any node is seen
+	 * right away. Problems that were uploaded before that are loaded.
+	 * @return the edit key, or null if the problem has none
+	 * @throws IOException if the problem doesn't exist
+	 */
+	public String getEditKey(String repo, String problemName) throws IOException {
+		String editKey;
+		if (s3conn.isOnS3(repo)) {
+			Map<String, String> metadata = s3conn.getUserMetadataFromS3(repo, problemName);
+			if (metadata == null) throw new NoSuchFileException(repo + "/" + problemName);
+			editKey = metadata.get(EDIT_KEY_METADATA);
+			if (editKey == null) { // Legacy upload
+				Path problemDir = loadProblem(repo, problemName);
+				try {
+					editKey = Util.read(problemDir, "edit.key");
+				} finally {
+					Util.deleteDirectory(problemDir);
+				}
+			}
+		} else {
+			Path problemDir = Paths.get(config.getString("com.horstmann.codecheck.repo." + repo)).resolve(problemName);
+			if (!Files.isDirectory(problemDir)) throw new NoSuchFileException(problemDir.toString());
+			editKey = Util.read(problemDir, "edit.key");
+		}
+		return editKey == null ? null : editKey.trim();
+	}
 	
 	public void run(String reportType, String repo,
 			String problem, String ccu, Path submissionDir)
 			throws IOException, InterruptedException, NoSuchMethodException, ScriptException {
 		Path problemDir = loadProblem(repo, problem, ccu);
-		run(reportType, repo, problem, problemDir, submissionDir,
-				"User=" + ccu, "Problem=" + (repo + "/" + problem).replaceAll("[^\\pL\\pN_/-]", ""));
+		run(reportType, repo, problem, problemDir, submissionDir, metaData(repo, problem, ccu));
 		Util.deleteDirectory(problemDir);
 	}
 
+	/**
+	 * Runs a check with a problem that was already loaded with loadProblem(repo, problem). 
+	 * The loaded problem is not modified, so that it can be shared by several runs.
+	 */
+	public void run(String reportType, String repo,
+			String problem, Path loadedProblemDir, String ccu, Path submissionDir)
+			throws IOException, InterruptedException, NoSuchMethodException, ScriptException {
+		Path problemDir = java.nio.file.Files.createTempDirectory("problem");
+		try {
+			Util.copyDirectory(loadedProblemDir, problemDir);
+			replaceParametersInDirectory(ccu, problemDir);
+			run(reportType, repo, problem, problemDir, submissionDir, metaData(repo, problem, ccu));
+		} finally {
+			Util.deleteDirectory(problemDir);
+		}
+	}
+
+	private static String[] metaData(String repo, String problem, String ccu) {
+		return new String[] { "User=" + ccu, "Problem=" + (repo + "/" + problem).replaceAll("[^\\pL\\pN_/-]", "") };
+	}
+
 	private void run(String reportType, String repo,
 			String problem, Path problemDir,
 			Path submissionDir, String... metaData) throws IOException, InterruptedException {
@@ -136,6 +367,9 @@ public class CodeCheck {
 		ProcessBuilder builder = new ProcessBuilder(script.split(" "));
         builder.redirectErrorStream(true);        
         builder.redirectOutput(submissionDir.resolve("codecheck.out").toFile());
+        if (!checkPermits.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS))
+        	throw new IOException("Too many checks are running");
+        activeRuns.incrementAndGet();
         try {
         	Process process = builder.start();
         	boolean completed = process.waitFor(TIMEOUT, TimeUnit.MILLISECONDS);
@@ -143,6 +377,9 @@ public class CodeCheck {
         } catch (Exception ex) {
         	ex.printStackTrace();
         	throw ex;
+        } finally {
+        	activeRuns.decrementAndGet();
+        	checkPermits.release();
         }
 	}	
 }
\ No newline at end of file
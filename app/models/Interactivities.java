@@ -0,0 +1,157 @@
+package models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.Logger;
+
+/*
+  The interactivity documents that LTIProblem.launch serves, fetched from
+  com.horstmann.codecheck.interactivities.origin with their relative links made
+  absolute. A rewritten document is reused for
+  com.horstmann.codecheck.interactivities.maxAge. After that, the origin is asked
+  whether it has changed, with the ETag and Last-Modified date of the copy. If the
+  origin can't be reached, the old copy is used.
+
+  A document is kept in pieces around its <head> tags, so that the script for each
+  launch can be put in without searching the document again.
+*/
+
+@Singleton
+public class Interactivities {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	private static final Pattern LINK_PATTERN = Pattern.compile("\\s+(src|href)=[\"']([^\"']+)[\"']");
+
+	private String origin;
+	private long maxAge; // milliseconds
+	private int timeout; // milliseconds
+
+	private static class Document {
+		String[] parts; // Split at <head>
+		String etag;
+		String lastModified;
+		volatile long checkedAt;
+	}
+
+	private Map<String, Document> documents;
+
+	public @Inject Interactivities(Config config) {
+		String prefix = "com.horstmann.codecheck.interactivities.";
+		origin = config.getString(prefix + "origin");
+		maxAge = config.getDuration(prefix + "maxAge").toMillis();
+		timeout = (int) config.getDuration(prefix + "timeout").toMillis();
+		int size = config.getInt(prefix + "cacheSize");
+		documents = Collections.synchronizedMap(new LinkedHashMap<String, Document>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+				return size() > size;
+			}
+		});
+	}
+
+	/**
+	 * Gets an interactivity document.
+	 * @param qid the ID of the interactivity
+	 * @param head what to put after each <head> tag
+	 */
+	public String get(String qid, String head) throws IOException {
+		String[] parts = getParts(qid);
+		int length = ("<head>".length() + head.length()) * (parts.length - 1);
+		for (String part : parts) length += part.length();
+		StringBuilder result = new StringBuilder(length);
+		result.append(parts[0]);
+		for (int i = 1; i < parts.length; i++)
+			result.append("<head>").append(head).append(parts[i]);
+		return result.toString();
+	}
+
+	private String[] getParts(String qid) throws IOException {
+		Document cached = documents.get(qid);
+		long now = System.currentTimeMillis();
+		if (cached != null && now - cached.checkedAt < maxAge) return cached.parts;
+
+		String urlString = origin + "/" + qid + ".xhtml";
+		HttpURLConnection connection = (HttpURLConnection) new URL(urlString).openConnection();
+		try {
+			int status;
+			try {
+				connection.setConnectTimeout(timeout);
+				connection.setReadTimeout(timeout);
+				if (cached != null) {
+					if (cached.etag != null) connection.setRequestProperty("If-None-Match", cached.etag);
+					if (cached.lastModified != null) connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+				}
+				status = connection.getResponseCode();
+			} catch (IOException ex) {
+				if (cached == null) throw ex;
+				logger.warn("Cannot revalidate " + urlString + ", using cached copy", ex);
+				cached.checkedAt = now;
+				return cached.parts;
+			}
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				cached.checkedAt = now;
+				return cached.parts;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				documents.remove(qid);
+				throw new IOException("Status " + status + " for " + urlString);
+			}
+			String contents;
+			try (InputStream in = connection.getInputStream()) {
+				contents = new String(Util.readAllBytes(in), StandardCharsets.UTF_8);
+			}
+			Document document = new Document();
+			document.parts = rewriteRelativeLinks(urlString, contents).split("<head>", -1);
+			document.etag = connection.getHeaderField("ETag");
+			document.lastModified = connection.getHeaderField("Last-Modified");
+			document.checkedAt = now;
+			documents.put(qid, document);
+			return document.parts;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/*
+	 * Makes the src and href links absolute, in one pass.
+	 */
+	private static String rewriteRelativeLinks(String urlString, String contents) {
+		int i1 = urlString.indexOf("/", 8); // after https://
+		String domain = urlString.substring(0, i1);
+		String base = urlString.substring(0, urlString.lastIndexOf("/") + 1);
+
+		StringBuilder document = new StringBuilder(contents.length() + contents.length() / 8);
+		Matcher matcher = LINK_PATTERN.matcher(contents);
+		int previousEnd = 0;
+		while (matcher.find()) {
+			document.append(contents, previousEnd, matcher.start());
+			String group1 = matcher.group(1);
+			String group2 = matcher.group(2);
+			document.append(' ').append(group1).append("='");
+			if (group2.startsWith("http:") || group2.startsWith("https:") || group2.startsWith("data:"))
+				document.append(group2);
+			else if (group2.startsWith("/"))
+				document.append(domain).append('/').append(group2);
+			else if (group2.equals("assets/receiveMessage.js")) // TODO: Hack?
+				document.append('/').append(group2);
+			else
+				document.append(base).append(group2);
+			document.append('\'');
+			previousEnd = matcher.end();
+		}
+		document.append(contents, previousEnd, contents.length());
+		return document.toString();
+	}
+}
@@ -0,0 +1,319 @@
+package models;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/*
+  Writes a zip file whose entries are compressed in parallel, one entry per task.
+  Entries are written in the order in which they were added. At most a few entries
+  per core are held in memory at a time. Files larger than STREAM_THRESHOLD are
+  not held in memory. They are compressed while they are written, after the
+  entries before them, with the sizes in a data descriptor.
+
+  Files that are already compressed (jars, images, zip files) are stored, and so is
+  any entry that doesn't get smaller when deflated. Entry names are UTF-8. There is
+  no ZIP64 support, which is plenty for problems and workspaces. An entry or a zip
+  file of 4 GB or more, or more than 65534 entries, is rejected with an IOException
+  before the field that can't hold it is written.
+*/
+
+public class ParallelZipWriter {
+	private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+		"jar", "zip", "gz", "png", "gif", "jpg", "jpeg"));
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int MAX_PENDING = 2 * THREADS;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long MAX_32 = 0xFFFFFFFEL; // 0xFFFFFFFF means ZIP64
+	private static final int MAX_ENTRIES = 0xFFFE; // 0xFFFF means ZIP64
+	static final int STREAM_THRESHOLD = 1 << 20;
+	private static ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+		Thread t = new Thread(r, "codecheck-zip");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static class Entry {
+		byte[] name;
+		int flags = 0x0800; // UTF-8 names
+		int method;
+		int dosTime;
+		long crc;
+		long size;
+		long compressedSize;
+		byte[] data;
+		long offset;
+	}
+
+	private OutputStream out;
+	private int level;
+	private long offset;
+	private Deque<Future<Entry>> pending = new ArrayDeque<>();
+	private List<Entry> written = new ArrayList<>();
+
+	/**
+	 * Constructs a writer. The stream is flushed but not closed by finish.
+	 * @param level the Deflater compression level
+	 */
+	public ParallelZipWriter(OutputStream out, int level) {
+		this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+		this.level = level;
+	}
+
+	public void add(String name, Path file) throws IOException {
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+		boolean store = STORED_EXTENSIONS.contains(Util.extension(file).toLowerCase());
+		long size = Files.size(file);
+		checkLimit(size, file + " is too large");
+		if (size > STREAM_THRESHOLD) {
+			while (!pending.isEmpty()) writeNext();
+			writeStreamed(name, file, lastModified, store);
+		} else
+			submit(() -> compress(name, Files.readAllBytes(file), lastModified, store));
+	}
+
+	public void add(String name, byte[] contents) throws IOException {
+		add(name, contents, System.currentTimeMillis());
+	}
+
+	public void add(String name, byte[] contents, long lastModified) throws IOException {
+		boolean store = STORED_EXTENSIONS.contains(Util.extension(name));
+		submit(() -> compress(name, contents, lastModified, store));
+	}
+
+	/**
+	 * Writes the remaining entries and the central directory.
+	 */
+	public void finish() throws IOException {
+		while (!pending.isEmpty()) writeNext();
+		long directoryOffset = offset;
+		if (written.size() > MAX_ENTRIES) throw new IOException("Too many zip entries");
+		checkLimit(directoryOffset, "Zip file too large");
+		for (Entry entry : written) {
+			writeInt(0x02014b50);
+			writeShort(20); // Version made by
+			writeHeaderFields(entry);
+			writeShort(0); // Comment length
+			writeShort(0); // Disk number
+			writeShort(0); // Internal attributes
+			writeInt(0); // External attributes
+			writeInt(entry.offset);
+			write(entry.name);
+		}
+		long directorySize = offset - directoryOffset;
+		checkLimit(offset, "Zip file too large");
+		writeInt(0x06054b50);
+		writeShort(0); // Disk number
+		writeShort(0); // Disk with central directory
+		writeShort(written.size());
+		writeShort(written.size());
+		writeInt(directorySize);
+		writeInt(directoryOffset);
+		writeShort(0); // Comment length
+		out.flush();
+	}
+
+	private void submit(Callable<Entry> task) throws IOException {
+		if (pending.size() >= MAX_PENDING) writeNext();
+		pending.add(executor.submit(task));
+	}
+
+	private void writeNext() throws IOException {
+		Entry entry;
+		try {
+			entry = pending.remove().get();
+		} catch (InterruptedException | ExecutionException ex) {
+			for (Future<Entry> f : pending) f.cancel(true);
+			pending.clear();
+			Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new IOException(cause);
+		}
+		entry.offset = offset;
+		checkLimit(offset, "Zip file too large");
+		writeInt(0x04034b50);
+		writeHeaderFields(entry);
+		write(entry.name);
+		write(entry.data);
+		entry.data = null;
+		written.add(entry);
+	}
+
+	/*
+	 * The fields from "version needed" through "extra field length", which are
+	 * the same in the local header and the central directory
+	 */
+	private void writeHeaderFields(Entry entry) throws IOException {
+		writeShort(20); // Version needed to extract
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt(entry.crc);
+		writeInt(entry.compressedSize);
+		writeInt(entry.size);
+		writeShort(entry.name.length);
+		writeShort(0); // Extra field length
+	}
+
+	/*
+	 * A stored file is read twice, since its CRC must be in the local header
+	 * for ZipInputStream. A deflated file is read once, and its CRC and sizes
+	 * follow the data.
+	 */
+	private void writeStreamed(String name, Path file, long lastModified, boolean store) throws IOException {
+		Entry entry = new Entry();
+		entry.name = name.getBytes(StandardCharsets.UTF_8);
+		entry.dosTime = dosTime(lastModified);
+		entry.offset = offset;
+		checkLimit(offset, "Zip file too large");
+		byte[] buf = new byte[BUFFER_SIZE];
+		CRC32 crc = new CRC32();
+		if (store) {
+			entry.method = 0;
+			try (InputStream in = Files.newInputStream(file)) {
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					crc.update(buf, 0, n);
+					entry.size += n;
+				}
+			}
+			checkLimit(entry.size, file + " is too large");
+			entry.crc = crc.getValue();
+			entry.compressedSize = entry.size;
+			writeInt(0x04034b50);
+			writeHeaderFields(entry);
+			write(entry.name);
+			long start = offset;
+			try (InputStream in = Files.newInputStream(file)) {
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					out.write(buf, 0, n);
+					offset += n;
+				}
+			}
+			if (offset - start != entry.size) throw new IOException(file + " changed while it was zipped");
+		} else {
+			entry.method = 8;
+			entry.flags |= 0x0008; // Data descriptor
+			writeInt(0x04034b50);
+			writeHeaderFields(entry); // CRC and sizes are 0
+			write(entry.name);
+			long start = offset;
+			OutputStream data = new OutputStream() {
+				public void write(int b) throws IOException {
+					out.write(b);
+					offset++;
+				}
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					offset += len;
+				}
+			};
+			Deflater deflater = new Deflater(level, true);
+			try (InputStream in = Files.newInputStream(file)) {
+				DeflaterOutputStream deflated = new DeflaterOutputStream(data, deflater, BUFFER_SIZE);
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					crc.update(buf, 0, n);
+					entry.size += n;
+					deflated.write(buf, 0, n);
+				}
+				deflated.finish();
+			} finally {
+				deflater.end();
+			}
+			checkLimit(entry.size, file + " is too large"); // If it grew
+			entry.crc = crc.getValue();
+			entry.compressedSize = offset - start;
+			checkLimit(entry.compressedSize, file + " is too large");
+			writeInt(0x08074b50);
+			writeInt(entry.crc);
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+		}
+		written.add(entry);
+	}
+
+	private Entry compress(String name, byte[] contents, long lastModified, boolean store) {
+		Entry entry = new Entry();
+		entry.name = name.getBytes(StandardCharsets.UTF_8);
+		entry.dosTime = dosTime(lastModified);
+		entry.size = contents.length;
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+		entry.crc = crc.getValue();
+		entry.method = 0; // Stored
+		entry.data = contents;
+		if (!store) {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				deflater.setInput(contents);
+				deflater.finish();
+				ByteArrayOutputStream deflated = new ByteArrayOutputStream(contents.length / 2 + 64);
+				byte[] buf = new byte[BUFFER_SIZE];
+				while (!deflater.finished() && deflated.size() < contents.length) {
+					int n = deflater.deflate(buf);
+					deflated.write(buf, 0, n);
+				}
+				if (deflater.finished() && deflated.size() < contents.length) {
+					entry.method = 8; // Deflated
+					entry.data = deflated.toByteArray();
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+		entry.compressedSize = entry.data.length;
+		return entry;
+	}
+
+	private static void checkLimit(long value, String message) throws IOException {
+		if (value > MAX_32) throw new IOException(message);
+	}
+
+	private static int dosTime(long millis) {
+		LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+		if (t.getYear() < 1980) return (1 << 21) | (1 << 16);
+		return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+			| t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		offset += bytes.length;
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		offset += 2;
+	}
+
+	private void writeInt(long v) throws IOException {
+		writeShort((int) (v & 0xFFFF));
+		writeShort((int) ((v >>> 16) & 0xFFFF));
+	}
+}
@@ -0,0 +1,66 @@
+package models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/*
+  A text response that is sent to many clients, such as the page of a problem that
+  is the same for all students. It is compressed once, when it is made, and not for
+  each request. Brotli would compress a little better, but the JDK has no encoder,
+  so there is only a gzip variant.
+*/
+
+public class Precompressed {
+	private byte[] plain;
+	private byte[] gzipped;
+
+	public Precompressed(String text) {
+		plain = text.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 4 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(plain);
+		} catch (IOException ex) { // Can't happen with a ByteArrayOutputStream
+			throw new UncheckedIOException(ex);
+		}
+		gzipped = out.toByteArray();
+	}
+
+	public byte[] getPlain() {
+		return plain;
+	}
+
+	public byte[] getGzipped() {
+		return gzipped;
+	}
+
+	/**
+	 * Checks whether an Accept-Encoding header allows gzip.
+	 * @param acceptEncoding the header value, or null if there is none
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) return false;
+		Boolean gzip = null;
+		boolean any = false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim();
+			boolean accepted = true;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(param.substring(2)) > 0;
+					} catch (NumberFormatException ex) {
+						accepted = false;
+					}
+				}
+			}
+			if (name.equalsIgnoreCase("gzip")) gzip = accepted;
+			else if (name.equals("*")) any = accepted;
+		}
+		return gzip == null ? any : gzip;
+	}
+}
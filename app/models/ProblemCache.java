@@ -0,0 +1,245 @@
+package models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import play.Logger;
+
+/*
+  Parsed problems by version, so that a problem that doesn't use param.js is loaded
+  and parsed once per version and not for every request. Only problems with a
+  manifest (see BlobStore) have a version.
+
+  When a problem is published, its manifest is sent to the nodes in
+  com.horstmann.codecheck.warm.peers before it is stored. Each node accepts the
+  request and then fetches the blobs into its blob cache and parses the problem in
+  the background, so that the first requests after an upload or edit don't all take
+  the slow path. Publishing continues after com.horstmann.codecheck.warm.timeout
+  even if some nodes haven't answered. The peers of a node should not include
+  the node itself, which is warmed directly.
+  Warm-up requests must carry com.horstmann.codecheck.warm.key.
+
+  Problems with param.js are parsed for each student. The variants of recent
+  students are kept by problem version and student, up to
+  com.horstmann.codecheck.problems.variantCacheSize of them.
+
+  Images in the descriptions of problems with a manifest link to their blobs at
+  <assetURL>/problemAssets/<repo>/<hash>.<extension>, which never change. The links
+  are absolute, since descriptions are also shown on pages from other origins that
+  get them from /fileData. If com.horstmann.codecheck.problems.assetURL is not set,
+  images are inlined as data URIs.
+*/
+
+@Singleton
+public class ProblemCache {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	public static final String WARM_KEY_HEADER = "X-CodeCheck-Warm-Key";
+
+	private BlobStore blobStore;
+	private List<String> peers;
+	private String warmKey;
+	private long timeout; // milliseconds
+	private String assetURL; // null if images are inlined
+	private ObjectMapper mapper = new ObjectMapper();
+	private ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "codecheck-warm");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static class CachedProblem {
+		String version;
+		ProblemData data;
+	}
+
+	private Map<String, CachedProblem> entries;
+	private Map<String, ProblemData> variants;
+
+	public @Inject ProblemCache(Config config, BlobStore blobStore) {
+		this.blobStore = blobStore;
+		String prefix = "com.horstmann.codecheck.warm.";
+		peers = config.getStringList(prefix + "peers");
+		warmKey = config.hasPath(prefix + "key") ? config.getString(prefix + "key") : null;
+		timeout = config.getDuration(prefix + "timeout").toMillis();
+		int size = config.getInt("com.horstmann.codecheck.problems.cacheSize");
+		String assetKey = "com.horstmann.codecheck.problems.assetURL";
+		if (config.hasPath(assetKey) && !config.getString(assetKey).isEmpty())
+			assetURL = config.getString(assetKey).replaceAll("/+$", "");
+		entries = Collections.synchronizedMap(new LinkedHashMap<String, CachedProblem>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, CachedProblem> eldest) {
+				return size() > size;
+			}
+		});
+		int variantCacheSize = config.getInt("com.horstmann.codecheck.problems.variantCacheSize");
+		variants = Collections.synchronizedMap(new LinkedHashMap<String, ProblemData>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, ProblemData> eldest) {
+				return size() > variantCacheSize;
+			}
+		});
+	}
+
+	/**
+	 * Gets the parsed files of a problem.
+	 * @param manifest the manifest of the problem
+	 * @return the parsed files, or null if the problem uses param.js and must be
+	 * parsed for each student
+	 */
+	public ProblemData getData(String repo, String problem, ObjectNode manifest) throws IOException {
+		if (manifest.get("files").has("param.js")) return null;
+		String key = repo + "/" + problem;
+		String version = manifest.get("version").asText();
+		CachedProblem entry = entries.get(key);
+		if (entry != null && entry.version.equals(version)) return entry.data;
+		Path problemDir = blobStore.loadProblem(repo, manifest);
+		try {
+			entry = new CachedProblem();
+			entry.version = version;
+			entry.data = new Problem(problemDir, imageURLs(repo, manifest)).getData();
+			entry.data.version = version;
+		} finally {
+			Util.deleteDirectory(problemDir);
+		}
+		entries.put(key, entry);
+		return entry.data;
+	}
+
+	/**
+	 * Gets the parsed files of a problem with param.js for a student.
+	 * @param tag the tag of the problem for the student, see CodeCheck.getProblemTag
+	 * @return the parsed files, or null if they are not cached
+	 */
+	public ProblemData getVariant(String repo, String problem, String tag) {
+		return variants.get(repo + "/" + problem + "/" + tag);
+	}
+
+	public void putVariant(String repo, String problem, String tag, ProblemData data) {
+		variants.put(repo + "/" + problem + "/" + tag, data);
+	}
+
+	/**
+	 * Yields the URLs of the images of a problem, for Problem
+	 */
+	public Function<String, String> imageURLs(String repo, ObjectNode manifest) {
+		return src -> {
+			if (assetURL == null) return null;
+			String path;
+			try {
+				path = Paths.get(src).normalize().toString().replace('\\', '/');
+			} catch (InvalidPathException ex) {
+				return null;
+			}
+			JsonNode hash = manifest.get("files").get(path);
+			if (hash == null) return null;
+			String extension = Util.extension(path);
+			return assetURL + "/problemAssets/" + repo + "/" + hash.asText() + (extension.isEmpty() ? "" : "." + extension);
+		};
+	}
+
+	/**
+	 * Fetches the blobs of a problem that is about to be published and parses it.
+	 */
+	public void warm(String repo, String problem, ObjectNode manifest) throws IOException {
+		blobStore.expectManifest(repo, problem, manifest);
+		if (getData(repo, problem, manifest) == null) // Parameterized--just fetch the blobs
+			Util.deleteDirectory(blobStore.loadProblem(repo, manifest));
+		logger.info("Warmed " + repo + "/" + problem + " version " + manifest.get("version").asText());
+	}
+
+	/**
+	 * Warms this node for a peer that is about to publish a problem, without making
+	 * the peer wait. Failures are logged.
+	 */
+	public void warmInBackground(String repo, String problem, ObjectNode manifest) {
+		executor.execute(() -> {
+			try {
+				warm(repo, problem, manifest);
+			} catch (IOException | RuntimeException ex) {
+				logger.warn("Cannot warm " + repo + "/" + problem, ex);
+			}
+		});
+	}
+
+	public boolean isWarmKey(String key) {
+		return warmKey != null && warmKey.equals(key);
+	}
+
+	/**
+	 * Warms this node and the peers before a problem is published. Waits until
+	 * they are done or the timeout has elapsed. Failures are logged.
+	 */
+	public void warmAll(String repo, String problem, ObjectNode manifest) {
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		tasks.add(CompletableFuture.runAsync(() -> {
+			try {
+				warm(repo, problem, manifest);
+			} catch (IOException ex) {
+				logger.warn("Cannot warm " + repo + "/" + problem, ex);
+			}
+		}, executor));
+		if (warmKey != null)
+			for (String peer : peers)
+				tasks.add(CompletableFuture.runAsync(() -> warmPeer(peer, repo, problem, manifest), executor));
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			logger.warn("Warming " + repo + "/" + problem + " timed out");
+		} catch (InterruptedException | ExecutionException ex) {
+			logger.warn("Cannot warm " + repo + "/" + problem, ex);
+		}
+	}
+
+	private void warmPeer(String peer, String repo, String problem, ObjectNode manifest) {
+		try {
+			URL url = new URL(peer + "/private/warm/" + URLEncoder.encode(repo, "UTF-8") + "/"
+				+ URLEncoder.encode(problem, "UTF-8"));
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try {
+				connection.setConnectTimeout((int) timeout);
+				connection.setReadTimeout((int) timeout);
+				connection.setRequestMethod("POST");
+				connection.setRequestProperty("Content-Type", "application/json");
+				connection.setRequestProperty(WARM_KEY_HEADER, warmKey);
+				connection.setDoOutput(true);
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(mapper.writeValueAsBytes(manifest));
+				}
+				int status = connection.getResponseCode();
+				InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+				if (in != null) in.close();
+				if (status >= 400)
+					logger.warn("Warming " + repo + "/" + problem + " at " + peer + " failed with status " + status);
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException ex) {
+			logger.warn("Cannot warm " + repo + "/" + problem + " at " + peer, ex);
+		}
+	}
+}
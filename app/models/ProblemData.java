@@ -4,8 +4,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class ProblemData {
 	public Map<String, List<String>> requiredFiles = new LinkedHashMap<>();
 	public Map<String, String> useFiles = new LinkedHashMap<>();
 	public String description;
+	// The problem version if this data is shared by all students, null if it was made for one student
+	@JsonIgnore public String version;
 }
\ No newline at end of file
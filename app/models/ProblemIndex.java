@@ -0,0 +1,150 @@
+package models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+  The files of a problem directory, found with a single walk. The size and extension
+  of every file are recorded. Source files and Input are read when the index is made,
+  and are classified as text (valid UTF-8) or binary. Text source files are scanned
+  for the SOLUTION, SHOW, and EDIT pseudocomments.
+
+  Most .txt files are never looked at, so they are only read when their contents are
+  first asked for. The directory must therefore outlive the index. Other files, such
+  as the description and its images, are not read here.
+*/
+
+public class ProblemIndex {
+	private static final Set<String> SOURCE_EXTENSIONS = new HashSet<>(Arrays.asList(
+		"java", "c", "cpp", "c++", "h", "py", "scala",
+		"m", "rkt", "js", "cs", "hs", "sml", "s")); // Util.extension is lower case
+	// No letters or spaces, directive, optional no letters, trailing space (e.g. \r)
+	private static final Pattern DIRECTIVE = Pattern.compile("\\s*[\\PL&&[^\\s]]+(SOLUTION|SHOW|EDIT)($|\\s.*|[\\PL].*)");
+	private static final Pattern LINE_BREAK = Pattern.compile("\\R");
+
+	public static class Entry {
+		private Path path;
+		private Path file; // Absolute, until a .txt file is read
+		private long size;
+		private String extension;
+		private String contents;
+		private boolean text;
+		private Set<String> directives = Collections.emptySet();
+
+		/**
+		 * @return the path relative to the problem directory
+		 */
+		public Path getPath() { return path; }
+		public long getSize() { return size; }
+		public String getExtension() { return extension; }
+		public boolean isSource() { return isSourceExtension(extension); }
+		/**
+		 * @return the contents, with \r\n turned into \n, or null if the file is not
+		 * a source file, a .txt file, or Input
+		 */
+		public String getContents() throws IOException { load(); return contents; }
+		/**
+		 * @return true if the file can be read and is valid UTF-8
+		 */
+		public boolean isText() throws IOException { load(); return text; }
+		/**
+		 * @param directive one of SOLUTION, SHOW, EDIT
+		 */
+		public boolean hasDirective(String directive) { return directives.contains(directive); }
+		/**
+		 * @return true if this is a source file with a SOLUTION, SHOW, or EDIT pseudocomment
+		 */
+		public boolean isSolution() {
+			return hasDirective("SOLUTION") || hasDirective("SHOW") || hasDirective("EDIT");
+		}
+
+		private void load() throws IOException {
+			if (file == null) return;
+			read(this, Files.readAllBytes(file));
+			file = null;
+		}
+	}
+
+	private SortedMap<Path, Entry> entries = new TreeMap<>();
+
+	public ProblemIndex(Path dir) throws IOException {
+		if (!Files.exists(dir)) return;
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Entry entry = new Entry();
+				entry.path = dir.relativize(file);
+				entry.size = attrs.size();
+				entry.extension = Util.extension(entry.path);
+				if (isSourceExtension(entry.extension) || entry.path.toString().equals("Input"))
+					read(entry, Files.readAllBytes(file));
+				else if (entry.extension.equals("txt"))
+					entry.file = file;
+				entries.put(entry.path, entry);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @param path a path relative to the problem directory
+	 * @return the entry, or null if there is no such file
+	 */
+	public Entry get(Path path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * @return all entries, ordered by path
+	 */
+	public Collection<Entry> getEntries() {
+		return entries.values();
+	}
+
+	public static boolean isSourceExtension(String extension) {
+		return SOURCE_EXTENSIONS.contains(extension);
+	}
+
+	private static void read(Entry entry, byte[] bytes) {
+		String contents;
+		try {
+			contents = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT)
+				.decode(ByteBuffer.wrap(bytes)).toString();
+			entry.text = true;
+		} catch (CharacterCodingException ex) {
+			contents = new String(bytes, StandardCharsets.UTF_8);
+		}
+		entry.contents = contents.replace("\r\n", "\n");
+		if (!entry.text || !entry.isSource()) return;
+
+		Set<String> directives = new HashSet<>();
+		for (String line : LINE_BREAK.split(entry.contents)) {
+			int i = 0;
+			while (i < line.length() && " \t\n\u000B\f\r".indexOf(line.charAt(i)) >= 0) i++; // As \s in DIRECTIVE
+			// Directive lines start with delimiters, never with a letter
+			if (i == line.length() || Character.isLetter(line.charAt(i))) continue;
+			Matcher matcher = DIRECTIVE.matcher(line);
+			if (matcher.matches()) directives.add(matcher.group(1));
+		}
+		if (!directives.isEmpty()) entry.directives = directives;
+	}
+}
@@ -0,0 +1,232 @@
+package models;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.Logger;
+
+/*
+  Regrades the saved work for a problem after the problem has changed.
+
+  The instructor names the assignments to regrade, as assignment IDs or, for LTI,
+  as the resource IDs under which the work is saved. Assignments that don't contain
+  the problem are skipped. The job queries the CodeCheckWork items of each
+  assignment, and then reruns each student's latest state, one per step, so that
+  each run waits for idle check capacity. The new score is written to CodeCheckWork, unless
+  the student saved newer work in the meantime, and recorded in CodeCheckSubmissions.
+
+  The state of a CodeCheck problem is an array of { problemName, code } for
+  the editable sections, where problemName is file-n for the nth section of the file.
+*/
+
+public class RegradeJob extends BackgroundJobs.IdleJob {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+
+	private CodeCheck codeCheck;
+	private S3Connection s3conn;
+	private String repo;
+	private String problem;
+	private String host;
+	private List<String> workAssignmentIDs;
+	private List<String[]> work = new ArrayList<>(); // assignmentID, workID, problem key
+	private int next;
+	private Path problemDir;
+	private ProblemData data; // null if parameterized
+
+	/**
+	 * @param host the host (and port) of this server, for recognizing the problem URLs
+	 * @param workAssignmentIDs the assignment IDs or LTI resource IDs of the work to regrade
+	 */
+	public RegradeJob(CodeCheck codeCheck, S3Connection s3conn, String repo, String problem,
+			String host, List<String> workAssignmentIDs) {
+		super("Regrade " + repo + "/" + problem);
+		this.codeCheck = codeCheck;
+		this.s3conn = s3conn;
+		this.repo = repo;
+		this.problem = problem;
+		this.host = host;
+		this.workAssignmentIDs = workAssignmentIDs;
+	}
+
+	/*
+	 * A problem key is the URL of the problem, which must be on this server.
+	 */
+	private boolean isProblemKey(String key) {
+		String[] repoAndProblem = CodeCheck.repoAndProblem(key, host);
+		return repoAndProblem != null && repoAndProblem[0].equals(repo) && repoAndProblem[1].equals(problem);
+	}
+
+	/*
+	 * Reads the assignment of work saved under an assignment ID or LTI resource ID
+	 * ("toolConsumerID/contextID assignmentID", or a legacy resource ID).
+	 */
+	private ObjectNode readAssignment(String workAssignmentID) throws IOException {
+		String assignmentID = workAssignmentID.substring(workAssignmentID.lastIndexOf(' ') + 1);
+		if (assignmentID.equals(workAssignmentID) && workAssignmentID.contains("/")) {
+			ObjectNode resourceNode = s3conn.readJsonObjectFromDynamoDB("CodeCheckLTIResources", "resourceID", workAssignmentID);
+			if (resourceNode == null) return null;
+			assignmentID = resourceNode.get("assignmentID").asText();
+		}
+		return s3conn.readJsonObjectFromDynamoDB("CodeCheckAssignments", "assignmentID", assignmentID);
+	}
+
+	private boolean containsProblem(ObjectNode assignmentNode) {
+		for (JsonNode group : assignmentNode.path("problems"))
+			for (JsonNode p : group)
+				if (isProblemKey(p.path("URL").asText())) return true;
+		return false;
+	}
+
+	@Override
+	protected void run() throws Exception {
+		for (String workAssignmentID : workAssignmentIDs) {
+			ObjectNode assignmentNode = readAssignment(workAssignmentID);
+			if (assignmentNode == null || !containsProblem(assignmentNode)) {
+				logger.info("Regrade " + repo + "/" + problem + ": skipping " + workAssignmentID);
+				continue;
+			}
+			Map<String, ObjectNode> items = s3conn.readJsonObjectsFromDynamoDB("CodeCheckWork", "assignmentID", workAssignmentID, "workID");
+			for (ObjectNode item : items.values())
+				for (String key : Util.iterable(item.path("problems").fieldNames()))
+					if (isProblemKey(key))
+						work.add(new String[] { workAssignmentID, item.get("workID").asText(), key });
+		}
+		total = work.size();
+
+		problemDir = codeCheck.loadProblem(repo, problem);
+		boolean parameterized = Files.exists(problemDir.resolve("param.js"));
+		if (!parameterized) data = new Problem(problemDir).getData();
+	}
+
+	@Override
+	protected boolean step() {
+		if (next == work.size()) return false;
+		String[] w = work.get(next++);
+		try {
+			if (regrade(w[0], w[1], w[2], problemDir, data)) done++;
+			else skipped++;
+		} catch (Exception ex) {
+			logger.warn("Cannot regrade " + repo + "/" + problem + " for " + w[0] + " " + w[1], ex);
+			failed++;
+		}
+		return next < work.size();
+	}
+
+	@Override
+	protected void cleanup() {
+		if (problemDir == null) return;
+		try {
+			Util.deleteDirectory(problemDir);
+		} catch (IOException ex) {
+			logger.warn("Cannot delete " + problemDir, ex);
+		}
+	}
+
+	/*
+	 * Returns false if the work was skipped because it can't be regraded or
+	 * because it changed while it was being regraded.
+	 */
+	private boolean regrade(String assignmentID, String workID, String key, Path problemDir, ProblemData data)
+			throws Exception {
+		ObjectNode workNode = s3conn.readJsonObjectFromDynamoDB("CodeCheckWork", "assignmentID", assignmentID, "workID", workID);
+		if (workNode == null || !workNode.path("problems").has(key)) return false;
+		ObjectNode problemNode = (ObjectNode) workNode.get("problems").get(key);
+		JsonNode state = problemNode.get("state");
+		if (state == null || !state.isArray()) return false;
+
+		// Same student ID as in the parameterized problem that the student saw
+		String ccu = workID.contains("/") ? workID.substring(0, workID.indexOf("/")) : null;
+		if (data == null) {
+			if (ccu == null) return false; // LTI work--the parameterization is not known
+			Path studentProblemDir = Files.createTempDirectory("problem");
+			try {
+				Util.copyDirectory(problemDir, studentProblemDir);
+				codeCheck.replaceParametersInDirectory(ccu, studentProblemDir);
+				data = new Problem(studentProblemDir).getData();
+			} finally {
+				Util.deleteDirectory(studentProblemDir);
+			}
+		}
+		if (ccu == null) ccu = Util.createPronouncableUID();
+
+		Path submissionDir = codeCheck.createSubmissionDirectory();
+		for (Map.Entry<String, String> entry : assembleFiles(data, state).entrySet())
+			Util.write(submissionDir, entry.getKey(), entry.getValue());
+		codeCheck.run("njs", repo, problem, problemDir, ccu, submissionDir);
+		String report = Util.read(submissionDir.resolve("report.json"));
+		if (report == null) throw new IOException("No report for " + assignmentID + " " + workID);
+		double score = score(new ObjectMapper().readTree(report).path("score").asText());
+
+		String submittedAt = workNode.path("submittedAt").asText();
+		problemNode.put("score", score);
+		if (!s3conn.writeUnchangedJsonObjectToDynamoDB("CodeCheckWork", workNode, "submittedAt", submittedAt))
+			return false;
+
+		ObjectNode submissionNode = JsonNodeFactory.instance.objectNode();
+		submissionNode.put("submissionID", assignmentID + " " + workID + " " + key);
+		submissionNode.put("submittedAt", Instant.now().toString());
+		submissionNode.put("state", state.toString());
+		submissionNode.put("score", score);
+		submissionNode.put("regraded", true);
+		s3conn.writeJsonObjectToDynamoDB("CodeCheckSubmissions", submissionNode);
+		return true;
+	}
+
+	/*
+	 * The score in report.json is a string such as "3/4", as in codecheck.js
+	 */
+	private static double score(String scoreText) {
+		int n = scoreText.indexOf("/");
+		if (n < 0) return 0;
+		try {
+			double maxscore = Double.parseDouble(scoreText.substring(n + 1));
+			return maxscore == 0 ? 0 : Double.parseDouble(scoreText.substring(0, n)) / maxscore;
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	/*
+	 * Puts the editable sections from the state into the required files, in the same way as
+	 * codecheck.js combines the editors of the page that Files.filesHTML produces.
+	 */
+	private static Map<String, String> assembleFiles(ProblemData data, JsonNode state) {
+		Map<String, String> code = new HashMap<>();
+		for (JsonNode section : state)
+			code.put(section.path("problemName").asText(), section.path("code").asText());
+		Map<String, String> files = new HashMap<>();
+		for (Map.Entry<String, List<String>> entry : data.requiredFiles.entrySet()) {
+			String file = entry.getKey();
+			StringBuilder contents = new StringBuilder();
+			boolean editable = true;
+			int textAreaNumber = 0;
+			for (String cont : entry.getValue()) {
+				if (cont == null) {
+					editable = false;
+					continue;
+				}
+				textAreaNumber++;
+				String id = file + "-" + textAreaNumber;
+				if (textAreaNumber > 1) contents.append("\n");
+				if (editable && code.containsKey(id))
+					contents.append(code.get(id));
+				else
+					contents.append(Util.removeTrailingNewline(new StringBuilder(cont)));
+				editable = !editable;
+			}
+			files.put(file, contents.toString());
+		}
+		return files;
+	}
+}
@@ -15,6 +15,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -22,6 +24,7 @@ import javax.inject.Singleton;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
@@ -31,11 +34,16 @@ import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -49,6 +57,13 @@ public class S3Connection {
 	private String bucketSuffix = null;
 	private AmazonS3 amazonS3;
 	private AmazonDynamoDB amazonDynamoDB;
+	private static final int PART_SIZE = 8 << 20; // At least 5 MB, except for the last part
+	private static final int MAX_PARTS_IN_FLIGHT = 4;
+	private ExecutorService uploadExecutor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "codecheck-s3-upload");
+		t.setDaemon(true);
+		return t;
+	});
 	
 	public @Inject S3Connection(Config config) {
 		this.config = config;
@@ -62,12 +77,19 @@ public class S3Connection {
 				String s3AccessKey = props.getProperty("accessKey");
 				String s3SecretKey = props.getProperty("secretKey");
 				String s3Region = props.getProperty("region", "us-west-1"); 
-				amazonS3 = AmazonS3ClientBuilder
+				AmazonS3ClientBuilder s3Builder = AmazonS3ClientBuilder
 						.standard()
-						.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(s3AccessKey, s3SecretKey)))
+						.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(s3AccessKey, s3SecretKey)));
+				String s3EndpointKey = "com.horstmann.codecheck.s3endpoint";
+				if (config.hasPath(s3EndpointKey)) // S3-compatible server such as MinIO, for testing
+					s3Builder = s3Builder
+						.withEndpointConfiguration(new EndpointConfiguration(config.getString(s3EndpointKey), s3Region))
+						.withPathStyleAccessEnabled(true);
+				else
+					s3Builder = s3Builder
 						.withRegion(s3Region)
-						.withForceGlobalBucketAccessEnabled(true)
-						.build();
+						.withForceGlobalBucketAccessEnabled(true);
+				amazonS3 = s3Builder.build();
 				
 		    	amazonDynamoDB = AmazonDynamoDBClientBuilder
 		    			.standard()
@@ -105,12 +127,60 @@ public class S3Connection {
 		getS3Connection().putObject(bucket, key, file.toFile());
 	}
 	
+	/**
+	 * Puts a file to S3 together with user metadata that can be read back
+	 * with getUserMetadataFromS3 without fetching the file.
+	 */
+	public void putToS3(Path file, String repo, String key, Map<String, String> userMetadata)
+			throws IOException {
+		String bucket = repo + "." + bucketSuffix;
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setUserMetadata(userMetadata);
+		getS3Connection().putObject(new PutObjectRequest(bucket, key, file.toFile()).withMetadata(metadata));
+	}
+
+	/**
+	 * Reads the user metadata of an S3 object.
+	 * @return the metadata, or null if there is no such object
+	 */
+	public Map<String, String> getUserMetadataFromS3(String repo, String key)
+			throws IOException {
+		String bucket = repo + "." + bucketSuffix;
+		try {
+			return getS3Connection().getObjectMetadata(bucket, key).getUserMetadata();
+		} catch (AmazonS3Exception ex) {
+			if (ex.getStatusCode() == 404) return null;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Opens a stream that uploads an S3 object in parts while it is written.
+	 * Close the stream to complete the upload, or cancel it if writing failed.
+	 */
+	public S3MultipartOutputStream openS3OutputStream(String repo, String key, Map<String, String> userMetadata) {
+		String bucket = repo + "." + bucketSuffix;
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setUserMetadata(userMetadata);
+		return new S3MultipartOutputStream(getS3Connection(), uploadExecutor, bucket, key, metadata,
+			PART_SIZE, MAX_PARTS_IN_FLIGHT);
+	}
+
 	public void putToS3(String contents, String repo, String key)
 			throws IOException {
 		String bucket = repo + "." + bucketSuffix;
 		getS3Connection().putObject(bucket, key, contents);
 	}
 
+	/**
+	 * Copies an S3 object within the repo bucket, together with its metadata.
+	 */
+	public void copyInS3(String repo, String fromKey, String toKey)
+			throws IOException {
+		String bucket = repo + "." + bucketSuffix;
+		getS3Connection().copyObject(bucket, fromKey, bucket, toKey);
+	}
+
 	public void deleteFromS3(String repo, String key)
 			throws IOException {
 		String bucket = repo + "." + bucketSuffix;
@@ -137,6 +207,29 @@ public class S3Connection {
 				StandardCharsets.UTF_8);
 	}
 	
+	/**
+	 * Reads an S3 object as a string.
+	 * @return the contents, or null if there is no such object
+	 */
+	public String readFromS3IfExists(String repo, String key)
+			throws IOException {
+		try {
+			return readFromS3(repo, key);
+		} catch (AmazonS3Exception ex) {
+			if (ex.getStatusCode() == 404) return null;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Downloads an S3 object into a file.
+	 */
+	public void getFromS3(String repo, String key, Path file)
+			throws IOException {
+		String bucket = repo + "." + bucketSuffix;
+		getS3Connection().getObject(new GetObjectRequest(bucket, key), file.toFile());
+	}
+
 	// Delete returned path when done
 	public Path unzipFromS3(String repo, String problem)
 			throws IOException {
@@ -260,4 +353,24 @@ public class S3Connection {
     			.withValueMap(Collections.singletonMap(":" + timeStampKeyName, obj.get(timeStampKeyName).asText()))
     	);         	
     }   
+
+    /*
+     * Replaces an item only if the given attribute still has the value that it had when the item was read.
+     * Returns false if the item was changed in the meantime.
+     */
+    public boolean writeUnchangedJsonObjectToDynamoDB(String tableName, ObjectNode obj, String attributeName, String expectedValue) {
+    	DynamoDB dynamoDB = new DynamoDB(amazonDynamoDB);
+    	Table table = dynamoDB.getTable(tableName); 
+    	try {
+    		table.putItem(
+    			new PutItemSpec()
+    				.withItem(Item.fromJSON(obj.toString()))
+    				.withConditionExpression(attributeName + " = :" + attributeName)
+    				.withValueMap(Collections.singletonMap(":" + attributeName, expectedValue))
+    		);
+    		return true;
+    	} catch (ConditionalCheckFailedException ex) {
+    		return false;
+    	}
+    }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+package models;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import play.Logger;
+
+/*
+  Streams an S3 object in parts while it is written. Full parts are uploaded in
+  parallel, with at most maxPartsInFlight parts buffered at a time. The upload is
+  completed on close, or aborted if any part fails. An object that fits into a
+  single part is put with one request.
+
+  If the writer fails, call cancel instead of close so that the partial object
+  is not stored. The part buffer starts small and grows up to the part size, so
+  that small objects don't hold a full part in memory.
+*/
+
+public class S3MultipartOutputStream extends OutputStream {
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private AmazonS3 s3;
+	private ExecutorService executor;
+	private String bucket;
+	private String key;
+	private ObjectMetadata metadata;
+	private int partSize;
+	private Semaphore partsInFlight;
+
+	private String uploadId;
+	private byte[] buffer = new byte[0];
+	private int count;
+	private int partNumber;
+	private List<Future<PartETag>> parts = new ArrayList<>();
+	private boolean closed;
+
+	S3MultipartOutputStream(AmazonS3 s3, ExecutorService executor, String bucket, String key,
+			ObjectMetadata metadata, int partSize, int maxPartsInFlight) {
+		this.s3 = s3;
+		this.executor = executor;
+		this.bucket = bucket;
+		this.key = key;
+		this.metadata = metadata;
+		this.partSize = partSize;
+		this.partsInFlight = new Semaphore(maxPartsInFlight);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == partSize) uploadPart();
+		ensureCapacity(count + 1);
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (count == partSize) uploadPart();
+			int n = Math.min(len, partSize - count);
+			ensureCapacity(count + n);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Upload of " + key + " is closed");
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= buffer.length) return;
+		int newLength = Math.min(partSize, Math.max(capacity, Math.max(2 * buffer.length, INITIAL_BUFFER_SIZE)));
+		buffer = Arrays.copyOf(buffer, newLength);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		if (uploadId == null) { // Fits into one part
+			metadata.setContentLength(count);
+			s3.putObject(new PutObjectRequest(bucket, key, new ByteArrayInputStream(buffer, 0, count), metadata));
+			return;
+		}
+		if (count > 0) uploadPart();
+		List<PartETag> etags = new ArrayList<>();
+		try {
+			for (Future<PartETag> part : parts)
+				etags.add(part.get());
+			etags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+			s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+		} catch (InterruptedException | ExecutionException | RuntimeException ex) {
+			abort();
+			throw new IOException("Cannot upload " + key, ex instanceof ExecutionException ? ex.getCause() : ex);
+		}
+	}
+
+	private void uploadPart() throws IOException {
+		try {
+			if (uploadId == null)
+				uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, metadata)).getUploadId();
+			for (Future<PartETag> part : parts)
+				if (part.isDone()) part.get(); // Fail early
+			partsInFlight.acquire();
+		} catch (InterruptedException | ExecutionException | RuntimeException ex) {
+			closed = true;
+			if (uploadId != null) abort();
+			throw new IOException("Cannot upload " + key, ex instanceof ExecutionException ? ex.getCause() : ex);
+		}
+		UploadPartRequest request = new UploadPartRequest()
+			.withBucketName(bucket)
+			.withKey(key)
+			.withUploadId(uploadId)
+			.withPartNumber(++partNumber)
+			.withInputStream(new ByteArrayInputStream(buffer, 0, count))
+			.withPartSize(count);
+		parts.add(executor.submit(() -> {
+			try {
+				return s3.uploadPart(request).getPartETag();
+			} finally {
+				partsInFlight.release();
+			}
+		}));
+		buffer = new byte[0]; // The request holds on to the old buffer
+		count = 0;
+	}
+
+	/**
+	 * Discards what was written and aborts the upload.
+	 */
+	public void cancel() {
+		if (closed) return;
+		closed = true;
+		if (uploadId != null) abort();
+	}
+
+	private void abort() {
+		for (Future<PartETag> part : parts) part.cancel(true);
+		try {
+			s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+		} catch (RuntimeException ex) {
+			Logger.of("com.horstmann.codecheck").warn("Cannot abort upload of " + key, ex);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/*
+  Delivers score callbacks (the scoreCallback parameter of /checkNJS) in the
+  background so that a slow or dead callback host doesn't hold up the check.
+
+  Each pending callback is journaled as a JSON file { url, body, attempts, enqueuedAt }
+  in the journal directory. The file is deleted after successful delivery, or
+  moved to the failed subdirectory when all attempts are used up. Pending
+  callbacks are picked up again when the server restarts.
+*/
+
+@Singleton
+public class ScoreCallbackQueue {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck.lti");
+	private static final String FAILED = "failed";
+
+	private ObjectMapper mapper = new ObjectMapper();
+	private ScheduledExecutorService executor;
+	private Path journalDir;
+	private int maxAttempts;
+	private long initialBackoff; // milliseconds
+	private long maxBackoff;
+	private int timeout;
+
+	private AtomicInteger pending = new AtomicInteger();
+	private AtomicLong delivered = new AtomicLong();
+	private AtomicLong failedAttempts = new AtomicLong();
+	private AtomicLong abandoned = new AtomicLong();
+	private AtomicLong totalLatency = new AtomicLong(); // From enqueueing to delivery, in milliseconds
+	private AtomicLong maxLatency = new AtomicLong();
+
+	public @Inject ScoreCallbackQueue(Config config, ApplicationLifecycle lifecycle) {
+		String prefix = "com.horstmann.codecheck.scoreCallback.";
+		journalDir = Paths.get(config.getString(prefix + "journal"));
+		maxAttempts = config.getInt(prefix + "maxAttempts");
+		initialBackoff = config.getDuration(prefix + "initialBackoff").toMillis();
+		maxBackoff = config.getDuration(prefix + "maxBackoff").toMillis();
+		timeout = (int) config.getDuration(prefix + "timeout").toMillis();
+		executor = Executors.newScheduledThreadPool(config.getInt(prefix + "concurrency"));
+
+		try {
+			Files.createDirectories(journalDir.resolve(FAILED));
+			recover();
+		} catch (IOException ex) {
+			logger.error("Cannot use score callback journal " + journalDir, ex);
+		}
+		lifecycle.addStopHook(() -> {
+			executor.shutdownNow(); // Undelivered callbacks stay in the journal
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * Journals a callback and schedules its delivery.
+	 * @param url the score callback URL
+	 * @param body the JSON body to post
+	 */
+	public void enqueue(String url, String body) {
+		ObjectNode entry = JsonNodeFactory.instance.objectNode();
+		entry.put("url", url);
+		entry.put("body", body);
+		entry.put("attempts", 0);
+		entry.put("enqueuedAt", System.currentTimeMillis());
+		Path entryPath = journalDir.resolve(Util.createPublicUID() + ".json");
+		try {
+			writeEntry(entryPath, entry);
+		} catch (IOException ex) {
+			logger.warn("Cannot journal score callback to " + url, ex);
+			entryPath = null; // Deliver anyway, but it won't survive a restart
+		}
+		pending.incrementAndGet();
+		schedule(entryPath, entry, 0);
+	}
+
+	public ObjectNode metrics() {
+		ObjectNode result = JsonNodeFactory.instance.objectNode();
+		long count = delivered.get();
+		result.put("pending", pending.get());
+		result.put("delivered", count);
+		result.put("failedAttempts", failedAttempts.get());
+		result.put("abandoned", abandoned.get());
+		result.put("averageLatencyMillis", count == 0 ? 0 : totalLatency.get() / count);
+		result.put("maxLatencyMillis", maxLatency.get());
+		return result;
+	}
+
+	private void recover() throws IOException {
+		try (Stream<Path> entries = Files.list(journalDir)) {
+			for (Path entryPath : entries.filter(p -> p.toString().endsWith(".json")).sorted().collect(Collectors.toList())) {
+				try {
+					ObjectNode entry = (ObjectNode) mapper.readTree(entryPath.toFile());
+					pending.incrementAndGet();
+					schedule(entryPath, entry, 0);
+				} catch (IOException | ClassCastException ex) {
+					logger.warn("Skipping unreadable score callback " + entryPath, ex);
+					Files.move(entryPath, journalDir.resolve(FAILED).resolve(entryPath.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+		if (pending.get() > 0)
+			logger.info("Resuming delivery of " + pending.get() + " score callbacks");
+	}
+
+	private void schedule(Path entryPath, ObjectNode entry, long delay) {
+		executor.schedule(() -> deliver(entryPath, entry), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void deliver(Path entryPath, ObjectNode entry) {
+		String url = entry.get("url").asText();
+		int attempts = entry.get("attempts").asInt() + 1;
+		entry.put("attempts", attempts);
+		try {
+			int status = post(url, entry.get("body").asText());
+			if (status / 100 == 2) {
+				long latency = System.currentTimeMillis() - entry.get("enqueuedAt").asLong();
+				delivered.incrementAndGet();
+				totalLatency.addAndGet(latency);
+				maxLatency.accumulateAndGet(latency, Math::max);
+				pending.decrementAndGet();
+				if (entryPath != null) Files.deleteIfExists(entryPath);
+				return;
+			}
+			logger.info("Score callback " + url + " returned " + status);
+		} catch (IOException ex) {
+			logger.info("Score callback " + url + " failed: " + ex.getMessage());
+		}
+		failedAttempts.incrementAndGet();
+		try {
+			if (attempts >= maxAttempts) {
+				logger.warn("Giving up on score callback " + url + " after " + attempts + " attempts");
+				abandoned.incrementAndGet();
+				pending.decrementAndGet();
+				if (entryPath != null)
+					Files.move(entryPath, journalDir.resolve(FAILED).resolve(entryPath.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				if (entryPath != null) writeEntry(entryPath, entry);
+				long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempts - 1, 30));
+				schedule(entryPath, entry, backoff);
+			}
+		} catch (IOException ex) {
+			logger.warn("Cannot update score callback journal " + entryPath, ex);
+		}
+	}
+
+	private void writeEntry(Path entryPath, ObjectNode entry) throws IOException {
+		Path temp = journalDir.resolve(entryPath.getFileName() + ".tmp");
+		Files.write(temp, mapper.writeValueAsBytes(entry));
+		Files.move(temp, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private int post(String urlString, String content) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(urlString).openConnection();
+		try {
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(content.getBytes(StandardCharsets.UTF_8));
+			}
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				try (InputStream response = in) {
+					logger.info("Response: " + status + "\n" + new String(Util.readAllBytes(response), StandardCharsets.UTF_8));
+				}
+			}
+			return status;
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/*
+  Archives finished submission workspaces (codecheck.log, codecheck.out, report.*)
+  for auditing. Workspaces are queued from the check path and packed in the
+  background into a batch zip file in the spool directory, with an index.json entry
+  that lists the workspaces in the batch. The workspaces are deleted once the batch
+  is spooled. Spooled batches are uploaded to the archive repo as
+  submissions/yyyy/MM/dd/<batch>.zip and removed from the spool after a successful
+  upload. Failed uploads stay in the spool and are retried on the next run.
+  A workspace that can't be read, for example because it was reaped while it was
+  packed, is left out of the batch. Batches that weren't finished before a
+  shutdown are deleted at startup.
+
+  Archiving is disabled if com.horstmann.codecheck.archive.repo is not set.
+*/
+
+@Singleton
+public class SubmissionArchiver {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+
+	private S3Connection s3conn;
+	private String repo;
+	private Path spoolDir;
+	private int batchSize;
+	private int zipLevel;
+	private BlockingQueue<Path> queue;
+	private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+	private AtomicLong archived = new AtomicLong();
+	private AtomicLong dropped = new AtomicLong();
+	private AtomicLong batchesUploaded = new AtomicLong();
+	private AtomicLong bytesUploaded = new AtomicLong();
+	private AtomicLong uploadFailures = new AtomicLong();
+
+	public @Inject SubmissionArchiver(Config config, S3Connection s3conn, ApplicationLifecycle lifecycle) {
+		this.s3conn = s3conn;
+		String prefix = "com.horstmann.codecheck.archive.";
+		if (!config.hasPath(prefix + "repo")) return;
+		repo = config.getString(prefix + "repo");
+		spoolDir = Paths.get(config.getString(prefix + "spool"));
+		batchSize = config.getInt(prefix + "batchSize");
+		zipLevel = config.getInt("com.horstmann.codecheck.zip.level");
+		queue = new LinkedBlockingQueue<>(config.getInt(prefix + "queueCapacity"));
+		long interval = config.getDuration(prefix + "interval").toMillis();
+		try {
+			Files.createDirectories(spoolDir);
+		} catch (IOException ex) {
+			logger.error("Cannot create archive spool " + spoolDir, ex);
+		}
+		executor.execute(this::deleteUnfinishedBatches);
+		executor.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MILLISECONDS);
+		lifecycle.addStopHook(() -> {
+			executor.shutdownNow(); // Queued workspaces are left to the WorkspaceManager
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * Queues a finished workspace for archival. Never blocks. If the queue is full,
+	 * the workspace is not archived and reclaimed by the WorkspaceManager.
+	 * @param workspace the submission directory
+	 */
+	public void archive(Path workspace) {
+		if (queue == null) return;
+		if (!queue.offer(workspace)) dropped.incrementAndGet();
+	}
+
+	public ObjectNode metrics() {
+		ObjectNode result = JsonNodeFactory.instance.objectNode();
+		result.put("enabled", queue != null);
+		result.put("queued", queue == null ? 0 : queue.size());
+		result.put("archived", archived.get());
+		result.put("dropped", dropped.get());
+		result.put("batchesUploaded", batchesUploaded.get());
+		result.put("bytesUploaded", bytesUploaded.get());
+		result.put("uploadFailures", uploadFailures.get());
+		return result;
+	}
+
+	private void run() {
+		try {
+			while (!queue.isEmpty()) {
+				List<Path> batch = new ArrayList<>();
+				queue.drainTo(batch, batchSize);
+				spool(batch);
+			}
+			upload();
+		} catch (Exception ex) { // Don't let an exception cancel the schedule
+			logger.warn("Cannot archive submissions", ex);
+		}
+	}
+
+	private void spool(List<Path> batch) throws IOException {
+		String batchName = Util.createPublicUID();
+		Path temp = spoolDir.resolve(batchName + ".tmp");
+		ArrayNode index = JsonNodeFactory.instance.arrayNode();
+		List<Path> packed = new ArrayList<>();
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				ParallelZipWriter zip = new ParallelZipWriter(out, zipLevel);
+				for (Path workspace : batch) {
+					if (!Files.isDirectory(workspace)) continue; // Already reaped
+					String name = workspace.getFileName().toString();
+					ObjectNode entry = JsonNodeFactory.instance.objectNode();
+					Map<String, byte[]> contents = new LinkedHashMap<>();
+					Map<String, Long> lastModified = new LinkedHashMap<>();
+					try { // Read first, so that a workspace that goes away leaves nothing in the zip
+						entry.put("workspace", name);
+						entry.put("lastModified", Files.getLastModifiedTime(workspace).toString());
+						ObjectNode files = entry.putObject("files");
+						for (Path p : Util.getDescendantFiles(workspace)) {
+							Path file = workspace.resolve(p);
+							String entryName = name + "/" + p.toString().replace('\\', '/');
+							lastModified.put(entryName, Files.getLastModifiedTime(file).toMillis());
+							byte[] bytes = Files.readAllBytes(file);
+							contents.put(entryName, bytes);
+							files.put(p.toString(), bytes.length);
+						}
+					} catch (IOException ex) {
+						logger.warn("Cannot archive " + workspace + ", skipping it", ex);
+						continue;
+					}
+					for (Map.Entry<String, byte[]> e : contents.entrySet())
+						zip.add(e.getKey(), e.getValue(), lastModified.get(e.getKey()));
+					index.add(entry);
+					packed.add(workspace);
+				}
+				zip.add("index.json", new ObjectMapper().writeValueAsBytes(index));
+				zip.finish();
+			}
+			if (!packed.isEmpty())
+				Files.move(temp, spoolDir.resolve(batchName + ".zip"), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		for (Path workspace : packed) {
+			try {
+				Util.deleteDirectory(workspace);
+			} catch (IOException ex) { // Left to the WorkspaceManager
+				logger.warn("Cannot delete " + workspace, ex);
+			}
+		}
+		archived.addAndGet(packed.size());
+	}
+
+	/*
+	 * Batches that were being written when the server stopped
+	 */
+	private void deleteUnfinishedBatches() {
+		try (Stream<Path> entries = Files.list(spoolDir)) {
+			for (Path p : Util.iterable(entries.iterator()))
+				if (p.toString().endsWith(".tmp")) Files.deleteIfExists(p);
+		} catch (IOException ex) {
+			logger.warn("Cannot delete unfinished archive batches in " + spoolDir, ex);
+		}
+	}
+
+	private void upload() throws IOException {
+		List<Path> batches;
+		try (Stream<Path> entries = Files.list(spoolDir)) {
+			batches = entries.filter(p -> p.toString().endsWith(".zip")).sorted().collect(Collectors.toList());
+		}
+		for (Path batch : batches) {
+			String key = "submissions/" + DateTimeFormatter.ofPattern("yyyy/MM/dd").format(LocalDate.now())
+				+ "/" + batch.getFileName();
+			try {
+				long size = Files.size(batch);
+				s3conn.putToS3(batch, repo, key);
+				Files.delete(batch);
+				batchesUploaded.incrementAndGet();
+				bytesUploaded.addAndGet(size);
+			} catch (Exception ex) {
+				uploadFailures.incrementAndGet();
+				logger.warn("Cannot upload archive " + batch + ", will retry", ex);
+				return; // Try the remaining batches next time
+			}
+		}
+	}
+}
@@ -18,7 +18,6 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -26,6 +25,7 @@ import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
@@ -34,6 +34,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -47,7 +48,9 @@ import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import play.Logger;
@@ -56,6 +59,7 @@ import play.mvc.Http;
 public class Util {
 	private static Random generator = new Random();
 	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	private static final int ZIP_BUFFER_SIZE = 1 << 16;
 
 	public static boolean isEmpty(String str) { return str == null || str.isEmpty(); }
 	
@@ -234,27 +238,120 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Extracts a zip file, skipping __MACOSX entries and hidden files.
+	 * Entries that would be extracted outside dir are rejected.
+	 */
 	public static void unzip(InputStream in, Path dir) throws IOException {
-		ZipInputStream zin = new ZipInputStream(in);
-		ZipEntry entry;
-		while ((entry = zin.getNextEntry()) != null) {
-			String name = entry.getName();
-			Path outputPath = dir.resolve(name);
-			if (!entry.isDirectory() 
-					&& !name.startsWith("__MACOSX/") 
-					&& !outputPath.getFileName().toString().startsWith(".")) {
-				Path parent = outputPath.getParent();
-				java.nio.file.Files.createDirectories(parent);
-				OutputStream out = new FileOutputStream(outputPath.toFile());
-				byte[] buf = new byte[1024];
-				int len;
-				while ((len = zin.read(buf)) > 0)
-					out.write(buf, 0, len);
-				out.close();
+		Path root = dir.toAbsolutePath().normalize();
+		byte[] buf = new byte[ZIP_BUFFER_SIZE];
+		try (ZipInputStream zin = new ZipInputStream(in)) {
+			ZipEntry entry;
+			while ((entry = zin.getNextEntry()) != null) {
+				String name = entry.getName();
+				// Directories are made as needed, so entries such as ./ or / can be skipped, as in normalizeZip
+				if (entry.isDirectory() || name.isEmpty() || name.startsWith("__MACOSX/")) continue;
+				Path outputPath = root.resolve(name).normalize();
+				if (!outputPath.startsWith(root) || outputPath.equals(root))
+					throw new IOException("Bad zip entry " + name);
+				if (!outputPath.getFileName().toString().startsWith(".")) {
+					Files.createDirectories(outputPath.getParent());
+					try (OutputStream out = Files.newOutputStream(outputPath)) {
+						int len;
+						while ((len = zin.read(buf)) > 0)
+							out.write(buf, 0, len);
+					}
+				}
+				zin.closeEntry();
+			}
+		}
+	}
+
+	/*
+	 * The central directory tells us up front whether there is a top-level directory to strip
+	 */
+	private static String topLevelPrefix(ZipFile zip) {
+		Set<String> topLevelDirs = new TreeSet<>();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+			int n = name.indexOf('/');
+			if (n >= 0) topLevelDirs.add(name.substring(0, n + 1));
+		}
+		topLevelDirs.remove("__MACOSX/");
+		return topLevelDirs.size() == 1 && !topLevelDirs.contains("student/") ? topLevelDirs.iterator().next() : "";
+	}
+
+	/**
+	 * Reads the edit key of a problem zip file that hasn't been normalized, using
+	 * the central directory to find it.
+	 * @return the trimmed edit key, or null if the zip file has no edit.key
+	 */
+	public static String readEditKey(Path zipPath) throws IOException {
+		try (ZipFile zip = new ZipFile(zipPath.toFile())) {
+			ZipEntry entry = zip.getEntry(topLevelPrefix(zip) + "edit.key");
+			if (entry == null || entry.isDirectory()) return null;
+			try (InputStream in = zip.getInputStream(entry)) {
+				return new String(readAllBytes(in), StandardCharsets.UTF_8).trim();
 			}
-			zin.closeEntry();
 		}
-		zin.close();
+	}
+
+	/**
+	 * Normalizes an uploaded problem zip file in a single pass. Small entries are
+	 * read into memory once. Large entries are streamed to their file and then
+	 * recompressed from it. If the zip file
+	 * contains a single top-level directory other than student, its contents are
+	 * moved up one level. __MACOSX entries and hidden files are dropped, and an
+	 * edit.key file is added if there is none.
+	 * @param zipPath the uploaded zip file
+	 * @param normalizedZip the stream for the normalized zip file, or null if not needed.
+	 * It is not closed.
+	 * @param dir the directory into which to extract the normalized contents
+	 * @param editKey the edit key to add if the zip file has none
+	 * @param level the Deflater compression level of the normalized zip file
+	 */
+	public static void normalizeZip(Path zipPath, OutputStream normalizedZip, Path dir, String editKey, int level) throws IOException {
+		try (ZipFile zip = new ZipFile(zipPath.toFile())) {
+			ParallelZipWriter zout = normalizedZip == null ? null : new ParallelZipWriter(normalizedZip, level);
+			String prefix = topLevelPrefix(zip);
+
+			Path root = dir.toAbsolutePath().normalize();
+			boolean hasEditKey = false;
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (entry.isDirectory() || name.startsWith("__MACOSX/")) continue;
+				if (name.startsWith(prefix)) name = name.substring(prefix.length());
+				Path outputPath = root.resolve(name).normalize();
+				if (!outputPath.startsWith(root) || outputPath.equals(root))
+					throw new IOException("Bad zip entry " + entry.getName());
+				if (outputPath.getFileName().toString().startsWith(".")) continue;
+				if (name.equals("edit.key")) hasEditKey = true;
+				Files.createDirectories(outputPath.getParent());
+				if (entry.getSize() < 0 || entry.getSize() > ParallelZipWriter.STREAM_THRESHOLD) {
+					try (InputStream in = zip.getInputStream(entry)) {
+						Files.copy(in, outputPath, StandardCopyOption.REPLACE_EXISTING);
+					}
+					if (zout != null) zout.add(name, outputPath); // Streamed from the file
+				} else {
+					byte[] bytes;
+					try (InputStream in = zip.getInputStream(entry)) {
+						bytes = readAllBytes(in);
+					}
+					Files.write(outputPath, bytes);
+					// Recompressed in the background from the same bytes
+					if (zout != null) zout.add(name, bytes);
+				}
+			}
+			if (!hasEditKey) {
+				byte[] bytes = editKey.getBytes(StandardCharsets.UTF_8);
+				Files.write(root.resolve("edit.key"), bytes);
+				if (zout != null) zout.add("edit.key", bytes);
+			}
+			if (zout != null) zout.finish();
+		}
 	}
 
 	public static String runProcess(String command, int millis) {
@@ -323,33 +420,28 @@ public class Util {
         }
 	}
 
+	/**
+	 * Zips the files in a directory into a stream, which is not closed.
+	 */
+	public static void zip(Path source, OutputStream out) throws IOException {
+		zip(source, out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Zips the files in a directory into a stream, which is not closed,
+	 * compressing the files in parallel.
+	 * @param level the Deflater compression level
+	 */
+	public static void zip(Path source, OutputStream out, int level) throws IOException {
+		ParallelZipWriter writer = new ParallelZipWriter(out, level);
+		for (Path p : getDescendantFiles(source))
+			writer.add(p.toString().replace('\\', '/'), source.resolve(p));
+		writer.finish();
+	}
+
 	public static void zip(Path source, Path zipPath) throws IOException {
-		URI uri;
-		try {
-			uri = new URI("jar", zipPath.toUri().toString(), null);
-			Files.deleteIfExists(zipPath);
-			// Constructs the URI jar:file://myfile.zip
-			try (FileSystem zipfs = FileSystems.newFileSystem(uri,
-					Collections.singletonMap("create", "true"))) {
-				Files.walk(source).forEach(p -> {
-					try {
-						String target = source.relativize(p).toString();
-						if (target.length() > 0) {
-							System.out.println(p + ", " + target);
-							Path q = zipfs.getPath("/" + target);
-							if (Files.isDirectory(p))
-								Files.createDirectory(q);
-							else
-								Files.copy(p, q);
-						}
-					} catch (IOException ex) {
-						throw new java.io.UncheckedIOException(ex);
-				}});
-			}
-		} catch (URISyntaxException e) {
-			throw new IOException(e);
-		} catch (java.io.UncheckedIOException ex) {
-			throw ex.getCause();
+		try (OutputStream out = Files.newOutputStream(zipPath)) {
+			zip(source, out);
 		}
 	}
 
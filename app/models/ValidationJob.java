@@ -0,0 +1,142 @@
+package models;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import play.Logger;
+
+/*
+  Checks the solution of a newly uploaded problem and keeps the HTML report
+  (base64-encoded) for the upload status page. The job takes ownership of the
+  problem directory, which is an unparameterized copy of the uploaded problem,
+  and deletes it when done. A successful result is stored with the problem version
+  in ValidationReports.
+
+  With atomic publishing, the new version is staged, and the job publishes it
+  after a report was generated. If no report can be generated, the staged
+  version is discarded and the previous version stays as it was. Otherwise, the
+  upload publishes the version while it is checked, and the job waits for that
+  before storing the result.
+*/
+
+public class ValidationJob extends BackgroundJobs.Job {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+
+	private CodeCheck codeCheck;
+	private ValidationReports reports;
+	private String repo;
+	private String problem;
+	private String version;
+	private Path problemDir;
+	private volatile String report;
+	private Publication publication;
+	private volatile boolean published;
+
+	/**
+	 * Publishes the checked version, or waits until it is published.
+	 */
+	public interface Publication {
+		void publish() throws Exception;
+		void discard() throws Exception;
+	}
+
+	/**
+	 * @param publication publishes the version after the check, or null if it is
+	 * already in place
+	 */
+	public ValidationJob(CodeCheck codeCheck, ValidationReports reports, String repo, String problem,
+			String version, Path problemDir, Publication publication) {
+		super("Validate " + repo + "/" + problem);
+		this.codeCheck = codeCheck;
+		this.reports = reports;
+		this.repo = repo;
+		this.problem = problem;
+		this.version = version;
+		this.problemDir = problemDir;
+		this.publication = publication;
+		total = 1;
+	}
+
+	@Override
+	protected void run() throws Exception {
+		try {
+			String studentId = Util.createPronouncableUID();
+			Path submissionDir = codeCheck.createSubmissionDirectory();
+			Path studentProblemDir = Files.createTempDirectory("problem");
+			try {
+				Util.copyDirectory(problemDir, studentProblemDir);
+				codeCheck.replaceParametersInDirectory(studentId, studentProblemDir);
+				copySolution(studentProblemDir, submissionDir);
+			} finally {
+				Util.deleteDirectory(studentProblemDir);
+			}
+			long start = System.currentTimeMillis();
+			codeCheck.run("html", repo, problem, problemDir, studentId, submissionDir);
+			long elapsed = System.currentTimeMillis() - start;
+			report = Util.base64(submissionDir, "report.html");
+			if (report == null) throw new IOException("No report could be generated.");
+			if (publication != null) {
+				publication.publish();
+				published = true;
+			}
+			done++;
+			storeResult(studentId, elapsed, Util.read(submissionDir, "codecheck.out"));
+		} catch (Exception ex) {
+			failed++;
+			if (publication != null && !published) {
+				try {
+					publication.discard();
+				} catch (Exception ex2) {
+					logger.warn("Cannot discard staged version of " + repo + "/" + problem, ex2);
+				}
+			}
+			throw ex;
+		} finally {
+			Util.deleteDirectory(problemDir);
+		}
+	}
+
+	/*
+	 * The report is still shown if it can't be stored.
+	 */
+	private void storeResult(String studentId, long elapsed, String output) {
+		ObjectNode result = JsonNodeFactory.instance.objectNode();
+		result.put("version", version);
+		result.put("studentId", studentId);
+		result.put("checkedAt", Instant.now().toString());
+		result.put("elapsed", elapsed);
+		result.put("report", report);
+		result.put("output", output);
+		try {
+			if (!reports.store(repo, problem, result))
+				logger.info("Validation of " + repo + "/" + problem + " version " + version + " not stored, since the version is not current");
+		} catch (IOException | RuntimeException ex) {
+			logger.warn("Cannot store validation of " + repo + "/" + problem, ex);
+		}
+	}
+
+	@Override
+	protected void addStatus(ObjectNode result) {
+		if (report != null) result.put("report", report);
+		if (publication != null) result.put("published", published);
+	}
+
+	private static void copySolution(Path problemDir, Path submissionDir) throws IOException {
+		Path solutionDir = problemDir.resolve("solution");
+		if (Files.exists(solutionDir)) {
+			for (Path p : Util.getDescendantFiles(solutionDir))
+				Files.copy(solutionDir.resolve(p), submissionDir.resolve(p));
+		} else {
+			boolean runMode = Files.exists(problemDir.resolve("Input"));
+			Util.forEachFile(problemDir, p -> {
+				if (runMode || Problem.isSolution(p))
+					Files.copy(p, submissionDir.resolve(p.getFileName()));
+			});
+		}
+	}
+}
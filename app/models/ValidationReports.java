@@ -0,0 +1,87 @@
+package models;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+/*
+  The result of the last successful check of a problem's solution, stored with the
+  problem so that it can be viewed without running the check again. A result is a
+  JSON object
+
+  { version, studentId, checkedAt, elapsed, report, output }
+
+  where version is the problem version that was checked (the manifest version on S3),
+  elapsed is the running time of the check in milliseconds, report is the base64-encoded
+  HTML report, and output is what codecheck printed.
+
+  On S3, results are stored as validations/<problem> in the repo bucket. In a local
+  repo, they are stored as .validations/<problem>.json in the repo directory.
+
+  On S3, a result is only stored if its version is the one in the problem's manifest,
+  so that a check that finishes late doesn't replace the result of a newer version,
+  or store one for a version that was never published.
+*/
+
+@Singleton
+public class ValidationReports {
+	private static final String VALIDATIONS = "validations/";
+
+	private Config config;
+	private S3Connection s3conn;
+	private BlobStore blobStore;
+	private ObjectMapper mapper = new ObjectMapper();
+
+	public @Inject ValidationReports(Config config, S3Connection s3conn, BlobStore blobStore) {
+		this.config = config;
+		this.s3conn = s3conn;
+		this.blobStore = blobStore;
+	}
+
+	/**
+	 * Stores the result of a check, unless it is for a version that isn't current.
+	 * @return true if the result was stored
+	 */
+	public boolean store(String repo, String problem, ObjectNode result) throws IOException {
+		String contents = mapper.writeValueAsString(result);
+		if (s3conn.isOnS3(repo)) {
+			ObjectNode manifest = blobStore.readManifest(repo, problem);
+			if (manifest == null || !manifest.path("version").asText().equals(result.path("version").asText()))
+				return false;
+			s3conn.putToS3(contents, repo, VALIDATIONS + problem);
+		}
+		else {
+			Path path = localPath(repo, problem);
+			Files.createDirectories(path.getParent());
+			Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the result of the last successful check of a problem.
+	 * @return the result, or null if the problem was never checked
+	 */
+	public ObjectNode load(String repo, String problem) throws IOException {
+		String contents;
+		if (s3conn.isOnS3(repo))
+			contents = s3conn.readFromS3IfExists(repo, VALIDATIONS + problem);
+		else
+			contents = Util.read(localPath(repo, problem));
+		return contents == null ? null : (ObjectNode) mapper.readTree(contents);
+	}
+
+	private Path localPath(String repo, String problem) {
+		return Paths.get(config.getString("com.horstmann.codecheck.repo." + repo))
+			.resolve(".validations").resolve(problem + ".json");
+	}
+}
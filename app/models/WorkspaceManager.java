@@ -0,0 +1,167 @@
+package models;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+/*
+  Submission workspaces live in time buckets below the submissions directory,
+  e.g. /tmp/codecheck/2103121440/2103121443123456789. A bucket holds the workspaces
+  created during one bucket period, so that no single directory grows without bounds.
+  The reaper deletes whole buckets once they are older than the retention period.
+
+  The submissions directory can be a tmpfs mount since workspaces are short-lived.
+*/
+
+@Singleton
+public class WorkspaceManager {
+	private static Logger.ALogger logger = Logger.of("com.horstmann.codecheck");
+	private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormatter.ofPattern("yyMMddHHmm");
+
+	private Path root;
+	private long bucketSize; // milliseconds
+	private long retention;
+	private ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+
+	private volatile long liveCount;
+	private volatile long liveBytes;
+	private volatile Instant measuredAt;
+	private AtomicLong created = new AtomicLong();
+	private AtomicLong reclaimed = new AtomicLong();
+	private AtomicLong reclaimedBytes = new AtomicLong();
+
+	public @Inject WorkspaceManager(Config config, ApplicationLifecycle lifecycle) {
+		root = Paths.get(config.getString("com.horstmann.codecheck.submissions"));
+		String prefix = "com.horstmann.codecheck.workspaces.";
+		bucketSize = config.getDuration(prefix + "bucketSize").toMillis();
+		retention = config.getDuration(prefix + "retention").toMillis();
+		long interval = config.getDuration(prefix + "reapInterval").toMillis();
+		reaper.scheduleWithFixedDelay(this::reap, interval, interval, TimeUnit.MILLISECONDS);
+		lifecycle.addStopHook(() -> {
+			reaper.shutdownNow();
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * Creates a new workspace in the current time bucket.
+	 * @return the path to the empty workspace directory
+	 */
+	public Path createWorkspace() throws IOException {
+		long now = System.currentTimeMillis();
+		Path bucket = root.resolve(bucketName(now - now % bucketSize));
+		Files.createDirectories(bucket);
+		created.incrementAndGet();
+		return Util.createTempDirectory(bucket);
+	}
+
+	public ObjectNode metrics() {
+		ObjectNode result = JsonNodeFactory.instance.objectNode();
+		result.put("count", liveCount);
+		result.put("bytes", liveBytes);
+		result.put("measuredAt", measuredAt == null ? null : measuredAt.toString());
+		result.put("created", created.get());
+		result.put("reclaimed", reclaimed.get());
+		result.put("reclaimedBytes", reclaimedBytes.get());
+		return result;
+	}
+
+	private static String bucketName(long millis) {
+		return BUCKET_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+	}
+
+	/*
+	 * Yields the time at which the bucket expires, or the last modification time
+	 * plus retention for legacy workspaces that were created directly under the root.
+	 */
+	private long expiration(Path dir) throws IOException {
+		String name = dir.getFileName().toString();
+		if (name.length() == 10) {
+			try {
+				long start = LocalDateTime.parse(name, BUCKET_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+				return start + bucketSize + retention;
+			} catch (DateTimeParseException ex) {
+				// Fall through
+			}
+		}
+		return Files.getLastModifiedTime(dir).toMillis() + retention;
+	}
+
+	private void reap() {
+		try {
+			if (!Files.exists(root)) return;
+			List<Path> dirs;
+			try (Stream<Path> entries = Files.list(root)) {
+				dirs = entries.filter(Files::isDirectory).collect(Collectors.toList());
+			}
+			long now = System.currentTimeMillis();
+			long count = 0;
+			long bytes = 0;
+			for (Path dir : dirs) {
+				long[] usage = usage(dir);
+				if (expiration(dir) < now) {
+					Util.deleteDirectory(dir);
+					reclaimed.addAndGet(usage[0]);
+					reclaimedBytes.addAndGet(usage[1]);
+				} else {
+					count += usage[0];
+					bytes += usage[1];
+				}
+			}
+			liveCount = count;
+			liveBytes = bytes;
+			measuredAt = Instant.now();
+		} catch (Exception ex) { // Don't let an exception cancel the schedule
+			logger.warn("Cannot reap workspaces in " + root, ex);
+		}
+	}
+
+	/*
+	 * Yields the number of workspaces and the total size of their files
+	 */
+	private long[] usage(Path dir) throws IOException {
+		long[] result = new long[2];
+		boolean isBucket = dir.getFileName().toString().length() == 10;
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+				if (isBucket ? d.getParent().equals(dir) : d.equals(dir)) result[0]++;
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				result[1] += attrs.size();
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return result;
+	}
+}
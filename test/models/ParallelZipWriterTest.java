@@ -0,0 +1,221 @@
+package models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+/*
+  Writes zip files with ParallelZipWriter and reads them back with ZipInputStream,
+  which goes by the local headers, and ZipFile, which goes by the central directory.
+
+  Running main compares the time of ParallelZipWriter and ZipOutputStream on a
+  problem-sized set of files:
+
+    sbt "Test/runMain models.ParallelZipWriterTest"
+*/
+
+public class ParallelZipWriterTest {
+	private static final Random random = new Random(42);
+
+	private static byte[] text(int size) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; result.length() < size; i++)
+			result.append("System.out.println(").append(i).append(");\n");
+		return result.substring(0, size).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] noise(int size) {
+		byte[] result = new byte[size];
+		random.nextBytes(result);
+		return result;
+	}
+
+	/*
+	 * The name, method, and contents of each entry, in the order of the zip file
+	 */
+	private static void assertEntries(Map<String, byte[]> expected, Map<String, Integer> methods, Path zipPath)
+			throws IOException {
+		Map<String, byte[]> actual = new LinkedHashMap<>();
+		try (ZipInputStream zin = new ZipInputStream(Files.newInputStream(zipPath), StandardCharsets.UTF_8)) {
+			ZipEntry entry;
+			while ((entry = zin.getNextEntry()) != null) {
+				actual.put(entry.getName(), Util.readAllBytes(zin));
+				if (methods.containsKey(entry.getName()))
+					assertEquals(entry.getName(), methods.get(entry.getName()), entry.getMethod());
+			}
+		}
+		assertEquals(expected.keySet().toString(), actual.keySet().toString());
+		for (String name : expected.keySet())
+			assertArrayEquals(expected.get(name), actual.get(name));
+
+		try (ZipFile zip = new ZipFile(zipPath.toFile(), StandardCharsets.UTF_8)) {
+			assertEquals(expected.size(), zip.size());
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			for (String name : expected.keySet()) {
+				ZipEntry entry = entries.nextElement();
+				assertEquals(name, entry.getName());
+				assertEquals(expected.get(name).length, entry.getSize());
+				try (InputStream in = zip.getInputStream(entry)) {
+					assertArrayEquals(expected.get(name), Util.readAllBytes(in));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void storedAndDeflated() throws IOException {
+		Map<String, byte[]> expected = new LinkedHashMap<>();
+		Map<String, Integer> methods = new LinkedHashMap<>();
+		expected.put("A.java", text(10000));
+		methods.put("A.java", ZipEntry.DEFLATED);
+		expected.put("lib/a.jar", text(10000)); // Stored by extension
+		methods.put("lib/a.jar", ZipEntry.STORED);
+		expected.put("noise.dat", noise(10000)); // Stored, since it doesn't get smaller
+		methods.put("noise.dat", ZipEntry.STORED);
+		expected.put("empty.txt", new byte[0]);
+		for (int i = 0; i < 100; i++) expected.put("many/" + i + ".txt", text(i * 37)); // More than MAX_PENDING
+
+		Path zipPath = Files.createTempFile("test", ".zip");
+		try {
+			try (OutputStream out = Files.newOutputStream(zipPath)) {
+				ParallelZipWriter zip = new ParallelZipWriter(out, Deflater.DEFAULT_COMPRESSION);
+				for (Map.Entry<String, byte[]> entry : expected.entrySet())
+					zip.add(entry.getKey(), entry.getValue());
+				zip.finish();
+			}
+			assertEntries(expected, methods, zipPath);
+		} finally {
+			Files.delete(zipPath);
+		}
+	}
+
+	@Test
+	public void utf8Names() throws IOException {
+		Map<String, byte[]> expected = new LinkedHashMap<>();
+		expected.put("Grüße.java", text(100));
+		expected.put("数据/文件.txt", text(200));
+		expected.put("emoji-😀.py", text(300));
+		Path zipPath = Files.createTempFile("test", ".zip");
+		try {
+			try (OutputStream out = Files.newOutputStream(zipPath)) {
+				ParallelZipWriter zip = new ParallelZipWriter(out, Deflater.BEST_SPEED);
+				for (Map.Entry<String, byte[]> entry : expected.entrySet())
+					zip.add(entry.getKey(), entry.getValue());
+				zip.finish();
+			}
+			assertEntries(expected, new LinkedHashMap<>(), zipPath);
+		} finally {
+			Files.delete(zipPath);
+		}
+	}
+
+	@Test
+	public void filesAndStreamedFiles() throws IOException {
+		Path dir = Files.createTempDirectory("test");
+		Path zipPath = Files.createTempFile("test", ".zip");
+		try {
+			Map<String, byte[]> expected = new LinkedHashMap<>();
+			Map<String, Integer> methods = new LinkedHashMap<>();
+			expected.put("small.txt", text(1000));
+			expected.put("big.txt", text(3 * ParallelZipWriter.STREAM_THRESHOLD));
+			methods.put("big.txt", ZipEntry.DEFLATED);
+			expected.put("big.jar", noise(2 * ParallelZipWriter.STREAM_THRESHOLD));
+			methods.put("big.jar", ZipEntry.STORED);
+			expected.put("after.txt", text(1000));
+			try (OutputStream out = Files.newOutputStream(zipPath)) {
+				ParallelZipWriter zip = new ParallelZipWriter(out, Deflater.DEFAULT_COMPRESSION);
+				for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+					Path file = dir.resolve(entry.getKey());
+					Files.write(file, entry.getValue());
+					zip.add(entry.getKey(), file);
+				}
+				zip.finish();
+			}
+			assertEntries(expected, methods, zipPath);
+		} finally {
+			Util.deleteDirectory(dir);
+			Files.delete(zipPath);
+		}
+	}
+
+	@Test
+	public void rejectsFilesOf4GB() throws IOException {
+		Path file = Files.createTempFile("test", ".dat");
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+				raf.setLength(1L << 32); // Sparse on most file systems
+			}
+			ParallelZipWriter zip = new ParallelZipWriter(new ByteArrayOutputStream(), Deflater.DEFAULT_COMPRESSION);
+			try {
+				zip.add("huge.dat", file);
+				fail("No exception for a 4 GB file");
+			} catch (IOException ex) {
+				// Expected, before anything is read
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void rejectsTooManyEntries() throws IOException {
+		ParallelZipWriter zip = new ParallelZipWriter(new ByteArrayOutputStream(), Deflater.BEST_SPEED);
+		for (int i = 0; i < 0xFFFF; i++) zip.add(i + ".txt", new byte[0]);
+		try {
+			zip.finish();
+			fail("No exception for 65535 entries");
+		} catch (IOException ex) {
+			// Expected
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		for (int i = 0; i < 200; i++) files.put("src/File" + i + ".java", text(20000 + 500 * i));
+		files.put("lib/junit.jar", noise(400000));
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (java.util.zip.ZipOutputStream zout = new java.util.zip.ZipOutputStream(out)) {
+				for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+					zout.putNextEntry(new ZipEntry(entry.getKey()));
+					zout.write(entry.getValue());
+					zout.closeEntry();
+				}
+			}
+			long sequential = System.nanoTime() - start;
+			start = System.nanoTime();
+			out = new ByteArrayOutputStream();
+			ParallelZipWriter zip = new ParallelZipWriter(out, Deflater.DEFAULT_COMPRESSION);
+			for (Map.Entry<String, byte[]> entry : files.entrySet())
+				zip.add(entry.getKey(), entry.getValue());
+			zip.finish();
+			long parallel = System.nanoTime() - start;
+			try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+				while (zin.getNextEntry() != null) Util.readAllBytes(zin);
+			}
+			System.out.printf("Round %d: ZipOutputStream %d ms, ParallelZipWriter %d ms%n", round,
+				sequential / 1000000, parallel / 1000000);
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package models;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/*
+  Checks that Problem.processHideShow, which classifies each line once, yields the
+  same sections as the implementation that tested each pseudocomment in turn. That
+  implementation is kept below as Baseline. Besides the cases that are spelled out,
+  a seeded random corpus of files made from pseudocomment and code lines is compared.
+
+  Running main compares the time of both implementations on that corpus:
+
+    sbt "Test/runMain models.ProblemTest"
+*/
+
+public class ProblemTest {
+   private static final String[] EXTENSIONS = { "java", "py", "sml" };
+   private static final String[] DIRECTIVES = {
+      "HIDE", "SHOW", "EDIT", "SOLUTION", "REQUIRED", "FORBIDDEN", "CALL", "SAMPLE", "ID",
+      "ARGS", "IN", "OUT", "IGNORECASE", "IGNORESPACE", "TOLERANCE", "MAXOUTPUTLEN", "TIMEOUT",
+      "NOSCORE", "SUB", "HIDDEN", "EDITOR" };
+
+   private static void assertSame(String extension, String contents) {
+      assertEquals(extension + ": " + contents, Baseline.processHideShow(extension, contents),
+         Problem.processHideShow(extension, contents));
+      String crlf = contents.replace("\n", "\r\n");
+      assertEquals(extension + ": " + crlf, Baseline.processHideShow(extension, crlf),
+         Problem.processHideShow(extension, crlf));
+   }
+
+   @Test
+   public void hide() {
+      assertSame("java", "//HIDE\npublic class A {}\n");
+      assertSame("java", "public class A {\n   //HIDE\n   int x;\n}\n");
+      assertSame("java", "//HIDE\nint x;\n//SHOW int y;\nint z;\n");
+      assertSame("py", "##HIDE\nx = 1\n");
+      assertSame("sml", "(*HIDE*)\nval x = 1\n");
+      assertSame("java", "//HIDEME\nint x;\n");
+   }
+
+   @Test
+   public void show() {
+      assertSame("sml", "(*HIDE*)\nval x = 1\n(*SHOW val y = 2*)\nval z = 3\n");
+      assertSame("sml", "(*SHOW*)\nval x = 1\n");
+      assertSame("sml", "(*SHOW text*)\n(*SHOW*) text*)\n(*SHOWx*)\n");
+      assertSame("java", "//SOLUTION\nint x;\n//SHOW\nint y;\n");
+      assertSame("py", "##SHOW print(1)\n##HIDE\nx = 2\n");
+   }
+
+   @Test
+   public void editAtTop() {
+      assertSame("java", "//EDIT\nint x;\npublic class A {}\n");
+      assertSame("java", "//EDIT int x;\n//EDIT\npublic class A {}\n");
+      assertSame("java", "//EDIT\n\npublic class A {\n//HIDE\nint secret;\n//SHOW\n}\n");
+      assertSame("sml", "(*EDIT val x = 1*)\nval y = 2\n");
+   }
+
+   @Test
+   public void editAtBottom() {
+      assertSame("java", "public class A {\n   int x;\n//EDIT\n");
+      assertSame("java", "public class A {\n//EDIT\n//EDIT   int y;\n}\n//EDIT\n");
+      assertSame("py", "def f():\n##EDIT   return 0\n");
+   }
+
+   @Test
+   public void requiredAndForbidden() {
+      assertSame("java", "//EDIT\n//REQUIRED\n//Use a loop\nfor (;;) {}\n");
+      assertSame("java", "//EDIT\n//FORBIDDEN\n//No streams\nx.stream()\n");
+      assertSame("java", "//EDIT\n//REQUIRED \\bfor\\b\nint x;\n");
+      assertSame("java", "//SHOW\n//REQUIRED\n//Use a loop\nfor (;;) {}\n");
+      assertSame("sml", "(*EDIT*)\n(*REQUIRED*)\n(*Use recursion*)\nfun f x = x\n");
+   }
+
+   @Test
+   public void removedAndSubstituted() {
+      assertSame("java", "//CALL 1, 2\n//ARGS a.txt\n//IN 3\n//OUT 4\nint x;\n");
+      assertSame("java", "//EDIT\n//TIMEOUT 10\nint x = 1; //SUB 2\n");
+      assertSame("sml", "val x = 1 (*SUB 2*)\n(*NOSCORE*)\n");
+   }
+
+   @Test
+   public void edgeCases() {
+      assertSame("java", "");
+      assertSame("java", "\n\n");
+      assertSame("java", "int x;");
+      assertSame("sml", "(*)\n(**)\n(*EDIT)\n");
+      assertEquals(Arrays.asList(""), Problem.processHideShow("java", null));
+   }
+
+   @Test
+   public void randomCorpus() {
+      for (String[] file : corpus(2000))
+         assertSame(file[0], file[1]);
+   }
+
+   /*
+    * Files of random lines. REQUIRED and FORBIDDEN are never last, since both
+    * implementations fail on that in show mode.
+    */
+   private static List<String[]> corpus(int size) {
+      Random random = new Random(42);
+      List<String[]> result = new ArrayList<>();
+      for (int k = 0; k < size; k++) {
+         String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+         String[] delims = Problem.commentDelimiters(extension);
+         StringBuilder contents = new StringBuilder();
+         int lines = 1 + random.nextInt(30);
+         for (int i = 0; i < lines; i++) {
+            int choice = random.nextInt(10);
+            String indent = random.nextBoolean() ? "" : "   ";
+            if (choice < 4) {
+               String directive = DIRECTIVES[random.nextInt(DIRECTIVES.length)];
+               String text = random.nextBoolean() ? "" : (random.nextBoolean() ? " " : "") + "x = " + i;
+               contents.append(indent).append(delims[0]).append(directive).append(text).append(delims[1]);
+            } else if (choice == 4)
+               contents.append(indent).append(delims[0]).append(" a comment").append(delims[1]);
+            else if (choice == 5)
+               contents.append("int y = ").append(i).append("; ").append(delims[0]).append("SUB ").append(i + 1).append(delims[1]);
+            else if (choice == 6)
+               contents.append("");
+            else
+               contents.append(indent).append("int x").append(i).append(" = ").append(i).append(";");
+            contents.append("\n");
+         }
+         contents.append("done();\n");
+         result.add(new String[] { extension, contents.toString() });
+      }
+      return result;
+   }
+
+   public static void main(String[] args) {
+      List<String[]> files = corpus(5000);
+      for (int round = 0; round < 5; round++) {
+         long start = System.nanoTime();
+         for (String[] file : files) Baseline.processHideShow(file[0], file[1]);
+         long baseline = System.nanoTime() - start;
+         start = System.nanoTime();
+         for (String[] file : files) Problem.processHideShow(file[0], file[1]);
+         long current = System.nanoTime() - start;
+         System.out.printf("Round %d: baseline %d ms, current %d ms%n", round, baseline / 1000000, current / 1000000);
+      }
+   }
+
+   /*
+    * processHideShow as it was before the lines were classified once
+    */
+   private static class Baseline {
+      private static boolean isPseudocomment(String line, String type,
+         String start, String end) {
+         line = line.trim();
+         if (!line.startsWith(start + type))
+            return false;
+         if (!line.endsWith(end))
+            return false;
+         int slen = start.length();
+         int tlen = type.length();
+         int elen = end.length();
+         if (line.length() == slen + tlen + elen)
+            return true;
+         // If there is stuff after the type, there must be a white space
+         return Character.isWhitespace(line.charAt(slen + tlen));
+      }
+
+      private static boolean isRemoved(String line, String start, String end) {
+         for (String type : Arrays.asList("SAMPLE", "CALL", "ID", "ARGS", "IN", "OUT", "IGNORECASE",
+               "IGNORESPACE", "TOLERANCE", "MAXOUTPUTLEN", "TIMEOUT", "NOSCORE"))
+            if (isPseudocomment(line, type, start, end)) return true;
+         return false;
+      }
+
+      static List<String> processHideShow(String extension, String contents){
+         ArrayList <String> result = new ArrayList<String> ();
+         if (contents == null){
+            result.add("");
+            return result;
+         }
+
+         String[] delims = Problem.commentDelimiters(extension);
+         String start = delims[0];
+         String end = delims[1];
+         String[] lines = contents.split("\n");
+
+         boolean hasEdit = false;
+         boolean hasShow = false;
+         for (int i = 0; i < lines.length && !hasEdit; ++i){
+            if (isPseudocomment(lines[i], "EDIT", start, end)) {
+               hasEdit = true;
+            }
+            if (isPseudocomment(lines[i], "SHOW", start, end)) {
+               hasShow = true;
+            }
+         }
+         if (lines.length == 0 || isPseudocomment(lines[0], "HIDE", start, end) && !hasShow && !hasEdit)
+            return result; // Empty list means file is hidden
+
+         if (hasEdit) {
+            int sectionStart = 0;
+            boolean hiding = false;
+            boolean editOnPreviousLine = false;
+            boolean startWithEdit = false;
+            for (int i = 0; i < lines.length; i++) {
+               String line = lines[i].trim();
+               if (isPseudocomment(line, "EDIT", start, end)) {
+                  hiding = false;
+                  if (!editOnPreviousLine) { // emit preceding readonly section
+                     StringBuilder section = new StringBuilder();
+                     for (int j = sectionStart; j < i; j++){
+                        if (lines[j] != null) {
+                           section.append(lines[j]);
+                           section.append("\n");
+                        }
+                     }
+                     if (section.length() == 0) // Don't add a blank readonly section at the top
+                     {
+                        if (result.size() > 0) result.add("\n");
+                        else startWithEdit = true;
+                     }
+                     else
+                        result.add(section.toString());
+                     sectionStart = i;
+                  }
+                  editOnPreviousLine = true;
+
+                  String showString = start + "EDIT";
+                  int n1 = lines[i].indexOf(showString);
+                  int n2 = showString.length();
+                  int n3 = lines[i].lastIndexOf(end);
+                  if (n1 + n2 < n3)
+                     lines[i] = lines[i].substring(0, n1)
+                        + lines[i].substring(n1 + n2 + 1, n3);
+                  else
+                     lines[i] = ""; // Edit section is never empty
+               }
+               else {
+                  if (editOnPreviousLine) { // emit edit section
+                     StringBuilder section = new StringBuilder();
+                     for (int j = sectionStart; j < i; j++){
+                        if (lines[j] != null) {
+                           section.append(lines[j]);
+                           section.append("\n");
+                        }
+                     }
+                     if (section.toString().trim().length() == 0)
+                     {  section.insert(0, "\n");
+                        section.append("\n");
+                     }
+                     if (result.size() == 0) startWithEdit = true;
+                     result.add(section.toString());
+                     sectionStart = i;
+                  }
+                  editOnPreviousLine = false;
+
+                  if (isPseudocomment(line, "HIDE", start, end)) hiding = true;
+                  if (hiding) lines[i] = null;
+                  else if (isPseudocomment(line, "SOLUTION", start, end) || isRemoved(line, start, end)) {
+                     lines[i] = null;
+                  } else if(isPseudocomment(line, "REQUIRED", start, end)
+                     || isPseudocomment(line, "FORBIDDEN", start, end)){
+                     lines[i] = null;
+                     if (i < lines.length - 1) {
+                        String nextLine = lines[i + 1].trim();
+                        if (nextLine.startsWith(start) && nextLine.endsWith(end)) {
+                           lines[i + 1] = null;
+                           i++;
+                        }
+                     }
+                  } else if (isPseudocomment(line, "SHOW", start, end)) {
+                     hiding = false;
+                     String showString = start + "SHOW";
+                     int n1 = lines[i].indexOf(showString);
+                     int n2 = showString.length();
+                     int n3 = lines[i].lastIndexOf(end);
+                     if (n1 + n2 < n3)
+                        lines[i] = lines[i].substring(0, n1)
+                           + lines[i].substring(n1 + n2 + 1, n3);
+                     else
+                        lines[i] = null;
+                  } else if (line.contains(start + "SUB ")) {
+                     int n = lines[i].indexOf(start + "SUB");
+                     int n2 = end.equals("") ? lines[i].length() : lines[i].indexOf(
+                        end, n) + end.length();
+                     lines[i] = lines[i].substring(0, n) + lines[i].substring(n2);
+                  }
+               }
+            }
+            // Emit final section
+            StringBuilder section = new StringBuilder();
+            for (int j = sectionStart; j < lines.length; j++) {
+               if (lines[j] != null) {
+                  section.append(lines[j]);
+                  section.append("\n");
+               }
+            }
+            if (editOnPreviousLine && section.toString().trim().length() == 0)
+            {
+               section.insert(0, "\n");
+               section.append("\n");
+            }
+
+            result.add(section.toString());
+            if (!startWithEdit) result.add(0, null);
+            return result;
+         } else { // SHOW mode
+            boolean hiding = false;
+            boolean somethingHidden = false;
+            boolean isSolution = false;
+
+            for (int i = 0; i < lines.length; i++) {
+               String line = lines[i].trim();
+               if (isPseudocomment(line, "SOLUTION", start, end)) {
+                  isSolution = true;
+                  lines[i] = null;
+               } else if (isPseudocomment(line, "HIDE", start, end)) {
+                  hiding = true;
+                  somethingHidden = true;
+                  lines[i] = null;
+               } else if (isPseudocomment(line, "SHOW", start, end)) {
+                  hiding = false;
+                  isSolution = true;
+                  String showString = start + "SHOW";
+                  int n1 = lines[i].indexOf(showString);
+                  int n2 = showString.length();
+                  int n3 = lines[i].lastIndexOf(end);
+                  if (n1 + n2 < n3)
+                     lines[i] = lines[i].substring(0, n1)
+                        + lines[i].substring(n1 + n2 + 1, n3);
+                  else
+                     lines[i] = null;
+               } else if (hiding) {
+                  lines[i] = null;
+               } else if (isRemoved(line, start, end)) {
+                  lines[i] = null;
+               } else if (isPseudocomment(line, "REQUIRED", start, end)
+                  || isPseudocomment(line, "FORBIDDEN", start, end)) {
+                  lines[i] = null;
+                  String nextLine = lines[i + 1].trim();
+                  if (nextLine.startsWith(start) && nextLine.endsWith(end)) {
+                     lines[i + 1] = null;
+                     i++;
+                  }
+               } else if (line.contains(start + "SUB ")) {
+                  int n = lines[i].indexOf(start + "SUB");
+                  int n2 = end.equals("") ? lines[i].length() : lines[i].indexOf(
+                     end, n) + end.length();
+                  lines[i] = lines[i].substring(0, n) + lines[i].substring(n2);
+               }
+            }
+            if (isSolution && !somethingHidden) {
+               result.add("");
+               return result;
+            }
+            StringBuilder allRemainingLines = new StringBuilder();
+            for (String l : lines) {
+               if (l != null) {
+                  allRemainingLines.append(l);
+                  allRemainingLines.append("\n");
+               }
+            }
+            result.add(allRemainingLines.toString());
+            return result;
+         }
+      }
+   }
+}